@@ -0,0 +1,54 @@
+package org.homio.addon.imou;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Cloud payloads shaped like real deviceList/getAlarmMessage responses of a single camera account
+ */
+public final class ImouBenchmarkPayloads {
+
+  public static final String ABILITY = "AlarmMD,AudioTalk,AlarmPIR,WLAN,MT,HSEncrypt,CloudStorage,LocalStorage,PlaybackByFilename,"
+                                       + "BreathingLight,RTSV1,PT,Dormant,CheckAbDecible,AudioEncodeControl,SIMCA,WLM,Siren,"
+                                       + "LocalRecord,SmartTrack,HeaderDetect,CollectionPoint,TimeFormat,Reboot,NVM";
+
+  private ImouBenchmarkPayloads() {
+  }
+
+  public static String device(int index, String name) {
+    return """
+      {"channelNum":1,"baseline":"Imou_PZ_Cloud_Baseline","deviceId":"6C0A2B3DFA%04d","version":"2.840.0000000.28.R.220330",\
+      "channels":[{"csStatus":0,"alarmStatus":1,"channelName":"%s","channelOnline":true,\
+      "resolutions":[{"streamType":0,"name":"HD","imageSize":1080},{"streamType":1,"name":"SD","imageSize":360}],\
+      "channelAbility":"AlarmMD,AudioTalk,PT,SmartTrack,CollectionPoint","channelId":0,\
+      "channelPicUrl":"https://cloud-pic.easy4ip.com/6C0A2B3DFA%04d/0.jpg?Expires=1760000000&Signature=5b2c1e7f0d9a","shareStatus":false}],\
+      "encryptMode":0,"appId":"","deviceCatalog":"IPC","name":"%s","tlsEnable":true,"deviceModel":"IPC-C22EP",\
+      "ability":"%s","canBeUpgrade":false,"brand":"imou","platForm":0,"status":1}""".formatted(index, name, index, name, ABILITY);
+  }
+
+  public static byte[] deviceListResponse(int count) {
+    StringBuilder devices = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      devices.append(i == 0 ? "" : ",").append(device(i, "Camera " + i));
+    }
+    return response("{\"count\":%d,\"devices\":[%s]}".formatted(count, devices));
+  }
+
+  public static byte[] alarmMessagesResponse(int count) {
+    long time = Instant.parse("2026-10-17T10:00:00Z").getEpochSecond();
+    StringBuilder alarms = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      alarms.append(i == 0 ? "" : ",").append("""
+        {"alarmId":"%d","name":"Camera 0","time":%d,"localDate":"2026-10-17 10:%02d:00","type":"1",\
+        "thumbUrl":"https://alarm-pic.easy4ip.com/6C0A2B3DFA0000/%d_thumb.jpg?Expires=1760000000&Signature=a91c",\
+        "deviceId":"6C0A2B3DFA0000","picurlArray":["https://alarm-pic.easy4ip.com/6C0A2B3DFA0000/%d.jpg?Expires=1760000000"],\
+        "channelId":"0","token":""}""".formatted(900_000_000L + i, time - i * 60L, i % 60, i, i));
+    }
+    return response("{\"count\":%d,\"nextAlarmId\":\"%d\",\"alarms\":[%s]}".formatted(count, 900_000_000L + count, alarms));
+  }
+
+  private static byte[] response(String data) {
+    return "{\"id\":\"3b5f3c53-6e2a-4f0a-9c1c-0d4d3c8a1f20\",\"result\":{\"msg\":\"Operation is successful.\",\"code\":\"0\",\"data\":%s}}"
+      .formatted(data).getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,62 @@
+package org.homio.addon.imou;
+
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceDTO;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceDTO.ImouChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.homio.api.util.JsonUtils.OBJECT_MAPPER;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImouDeviceEntityBenchmark {
+
+  private final ImouDeviceEntity entity = new ImouDeviceEntity();
+  private ImouDeviceDTO device;
+  private ImouDeviceDTO renamedDevice;
+  private boolean renamed;
+
+  @Setup
+  public void setup() throws Exception {
+    device = OBJECT_MAPPER.readValue(ImouBenchmarkPayloads.device(0, "Camera 0"), ImouDeviceDTO.class);
+    renamedDevice = OBJECT_MAPPER.readValue(ImouBenchmarkPayloads.device(0, "Front door"), ImouDeviceDTO.class);
+    entity.tryUpdateDeviceEntity(device);
+  }
+
+  /**
+   * Periodic status sync case: nothing changed since last update
+   */
+  @Benchmark
+  public boolean tryUpdateUnchanged() {
+    return entity.tryUpdateDeviceEntity(device);
+  }
+
+  /**
+   * Device renamed in app: name and channel name differ on every call
+   */
+  @Benchmark
+  public boolean tryUpdateChanged() {
+    renamed = !renamed;
+    return entity.tryUpdateDeviceEntity(renamed ? renamedDevice : device);
+  }
+
+  @Benchmark
+  public Map<Integer, ImouChannel> getChannels() {
+    return entity.getChannels();
+  }
+}
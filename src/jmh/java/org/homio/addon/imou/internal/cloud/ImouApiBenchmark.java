@@ -0,0 +1,74 @@
+package org.homio.addon.imou.internal.cloud;
+
+import org.homio.addon.imou.ImouBenchmarkPayloads;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceAlarmMessageDTO;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceListDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImouApiBenchmark {
+
+  private final Map<String, Object> params = Map.of("deviceId", "6C0A2B3DFA0000", "channelId", "0", "enableType", "motionDetect");
+  private final ImouApiMetrics metrics = new ImouApiMetrics();
+  private final ImouAPI.ImouApiException apiError = new ImouAPI.ImouApiException("DV1007", "Device offline");
+  private byte[] deviceList;
+  private byte[] alarmMessages;
+
+  @Setup
+  public void setup() {
+    deviceList = ImouBenchmarkPayloads.deviceListResponse(ImouAPI.DEVICE_PAGE_SIZE);
+    alarmMessages = ImouBenchmarkPayloads.alarmMessagesResponse(ImouAPI.ALARM_PAGE_SIZE);
+  }
+
+  @Benchmark
+  public Map<String, Object> paramsInit() {
+    return ImouAPI.paramsInit(params, "lc7d5e1a2b3c4d5e6f", "0f1e2d3c4b5a69788796a5b4c3d2e1f0");
+  }
+
+  @Benchmark
+  public ImouDeviceListDTO processDeviceList() {
+    return ImouAPI.processResponse(new ByteArrayInputStream(deviceList), ImouDeviceListDTO.class);
+  }
+
+  @Benchmark
+  public ImouDeviceAlarmMessageDTO processAlarmMessages() {
+    return ImouAPI.processResponse(new ByteArrayInputStream(alarmMessages), ImouDeviceAlarmMessageDTO.class);
+  }
+
+  /**
+   * Should report zero allocation with -prof gc
+   */
+  @Benchmark
+  public void recordMetrics() {
+    ImouApiMetrics.Operation operation = metrics.start("deviceList");
+    long start = System.nanoTime();
+    operation.recordWait(1_000);
+    operation.stop(start, null);
+  }
+
+  /**
+   * Error code counter exists after first error, so should report zero allocation as well
+   */
+  @Benchmark
+  public void recordApiError() {
+    metrics.start("deviceList").stop(System.nanoTime(), apiError);
+  }
+}
@@ -0,0 +1,35 @@
+package org.homio.addon.imou.service;
+
+import org.homio.addon.imou.ImouBenchmarkPayloads;
+import org.homio.api.model.device.ConfigDeviceEndpoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImouDeviceServiceBenchmark {
+
+  // capabilities as stored by discovery, with version suffixes that matching strips
+  private final List<String> capabilities = List.of((ImouBenchmarkPayloads.ABILITY + ",MotionDetect,Linkagewhitelight,CloseCameraV2,"
+                                                     + "WhiteLightV1").split(","));
+
+  @Benchmark
+  public Map<String, ConfigDeviceEndpoint> getSwitches() {
+    return ImouDeviceService.getSwitches(capabilities);
+  }
+}
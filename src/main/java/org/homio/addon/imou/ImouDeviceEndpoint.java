@@ -11,6 +11,9 @@ import org.homio.api.state.State;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 import static org.homio.addon.imou.service.ImouDeviceService.CONFIG_DEVICE_SERVICE;
@@ -19,7 +22,15 @@ import static org.homio.addon.imou.service.ImouDeviceService.CONFIG_DEVICE_SERVI
 @Log4j2
 public class ImouDeviceEndpoint extends BaseDeviceEndpoint<ImouDeviceEntity> {
 
+  private static final int MAX_BACKOFF_EXPONENT = 6;
+  private static final Duration MAX_BACKOFF = Duration.ofHours(1);
+
   public Object data;
+  // poll interval in seconds from imou-devices.json. 0 - use device fetch interval
+  private final int pollInterval;
+  // written by project poller and by reader threads
+  private final AtomicLong nextPollTime = new AtomicLong();
+  private volatile int failures;
   private @Nullable Supplier<State> reader;
   private @Nullable
   @Setter Runnable initializer;
@@ -30,6 +41,7 @@ public class ImouDeviceEndpoint extends BaseDeviceEndpoint<ImouDeviceEntity> {
     @NotNull ImouDeviceEntity device) {
     super("IMOU", device.context());
     ConfigDeviceEndpoint configEndpoint = CONFIG_DEVICE_SERVICE.getDeviceEndpoints().get(endpointEntityID);
+    this.pollInterval = configEndpoint == null ? 0 : configEndpoint.getMetadata().optInt("pollInterval", 0);
 
     setIcon(new Icon(
       "fa fa-fw fa-" + (configEndpoint == null ? "tablet-screen-button" : configEndpoint.getIcon()),
@@ -52,17 +64,57 @@ public class ImouDeviceEndpoint extends BaseDeviceEndpoint<ImouDeviceEntity> {
 
   @Override
   public void readValue() {
+    tryReadValue();
+  }
+
+  /**
+   * @return false if reader failed
+   */
+  public boolean tryReadValue() {
     if (!isReadable()) {
-      return;
+      return true;
     }
     if (reader != null) {
       try {
         setValue(reader.get(), true);
-      } catch (Exception ignore) {
+      } catch (Exception ex) {
+        log.debug("[{}]: Unable to read imou endpoint {}: {}", getDeviceID(), getEndpointEntityID(), ex.getMessage());
+        return false;
       }
     } else {
       super.readValue();
     }
+    return true;
+  }
+
+  /**
+   * Check if endpoint poll time came and claim the poll. Claimed poll is pushed one interval ahead, so slow read is not started
+   * twice and dropped read is retried next interval. First poll time is jittered to spread fleet requests
+   *
+   * @param defaultInterval - device fetch interval in seconds, used if endpoint has no own poll interval
+   */
+  public boolean claimPollIfDue(long now, int defaultInterval) {
+    long next = nextPollTime.get();
+    long interval = getPollIntervalMillis(defaultInterval);
+    if (next == 0) {
+      nextPollTime.compareAndSet(0, now + ThreadLocalRandom.current().nextLong(interval));
+      return false;
+    }
+    return now >= next && nextPollTime.compareAndSet(next, now + interval);
+  }
+
+  /**
+   * Read value and schedule next poll. Failed reads are retried with exponential backoff limited by MAX_BACKOFF
+   */
+  public void poll(long now, int defaultInterval) {
+    int failed = tryReadValue() ? 0 : Math.min(failures + 1, MAX_BACKOFF_EXPONENT);
+    failures = failed;
+    long interval = getPollIntervalMillis(defaultInterval);
+    nextPollTime.set(now + Math.max(interval, Math.min(MAX_BACKOFF.toMillis(), interval << failed)));
+  }
+
+  private long getPollIntervalMillis(int defaultInterval) {
+    return (pollInterval > 0 ? pollInterval : defaultInterval) * 1000L;
   }
 
   @Override
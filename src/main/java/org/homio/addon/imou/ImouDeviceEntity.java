@@ -8,10 +8,15 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
 import lombok.experimental.Accessors;
+import org.homio.addon.imou.internal.cloud.ImouAPI.CameraProfile;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceAlarmMessageDTO.Alarm;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceDTO.ImouChannel;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceLiveStreamsDTO;
+import org.homio.addon.imou.service.ImouAlarmStore;
 import org.homio.addon.imou.service.ImouDeviceService;
+import org.homio.addon.imou.service.ImouProjectService;
+import org.homio.addon.imou.service.ImouSnapshotStore.Variant;
 import org.homio.api.Context;
 import org.homio.api.ContextMedia.FFMPEGFormat;
 import org.homio.api.entity.HasPlace;
@@ -41,16 +46,21 @@ import org.homio.api.ui.field.action.v1.UIInputBuilder;
 import org.homio.api.ui.field.color.UIFieldColorBgRef;
 import org.homio.api.ui.field.condition.UIFieldShowOnCondition;
 import org.homio.api.ui.field.image.UIFieldImage;
+import org.homio.api.ui.field.selection.UIFieldEntityByClassSelection;
 import org.homio.api.widget.template.WidgetDefinition;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.json.JSONObject;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -59,6 +69,7 @@ import static org.homio.addon.imou.ImouEntrypoint.IMOU_COLOR;
 import static org.homio.addon.imou.ImouEntrypoint.IMOU_ICON;
 import static org.homio.addon.imou.service.ImouDeviceService.CONFIG_DEVICE_SERVICE;
 import static org.homio.api.ui.field.UIFieldType.HTML;
+import static org.homio.api.util.Constants.PRIMARY_DEVICE;
 import static org.homio.api.util.JsonUtils.OBJECT_MAPPER;
 
 @SuppressWarnings({"JpaAttributeTypeInspection", "unused"})
@@ -191,7 +202,75 @@ public final class ImouDeviceEntity extends DeviceBaseEntity
   @UIActionButton(name = "get", icon = "fas fa-camera",
     actionHandler = ImouDeviceEntity.GetSnapshotActionHandler.class)
   public byte[] getSnapshot() {
-    return optService().map(ImouDeviceService::getSnapshot).orElse(null);
+    return optService().map(service -> service.getSnapshot(getSnapshotVariant())).orElse(null);
+  }
+
+  /**
+   * Smallest snapshot variant that fits entity card
+   */
+  @JsonIgnore
+  public Variant getSnapshotVariant() {
+    return isCompactMode() ? Variant.THUMBNAIL : Variant.MEDIUM;
+  }
+
+  /**
+   * High-water mark of synced alarms: epoch seconds of newest known alarm
+   */
+  @JsonIgnore
+  public long getLastAlarmTime() {
+    return getJsonData().optLong("lat", 0);
+  }
+
+  @JsonIgnore
+  public String getLastAlarmId() {
+    return getJsonData("lai");
+  }
+
+  /**
+   * Date of newest known alarm, including one seen by unfinished sync
+   */
+  @JsonIgnore
+  public String getLastAlarmDate() {
+    return defaultIfEmpty(getJsonData("pad"), getJsonData("lad"));
+  }
+
+  public void setLastAlarm(Alarm alarm) {
+    setJsonData("lat", alarm.getTime());
+    setJsonData("lai", alarm.getAlarmId());
+    setJsonData("lad", alarm.getLocalDate());
+  }
+
+  /**
+   * Page cursor of alarm sync that stopped at page limit. Next sync continues from it
+   */
+  @JsonIgnore
+  public String getAlarmSyncCursor() {
+    return getJsonData("asc");
+  }
+
+  /**
+   * Newest alarm seen by unfinished sync. Becomes high-water mark once sync walked down to previous high-water mark
+   */
+  @JsonIgnore
+  public @Nullable Alarm getPendingLastAlarm() {
+    if (!getJsonData().has("pat")) {
+      return null;
+    }
+    Alarm alarm = new Alarm();
+    alarm.setTime(getJsonData().optLong("pat"));
+    alarm.setAlarmId(getJsonData("pai"));
+    alarm.setLocalDate(getJsonData("pad"));
+    return alarm;
+  }
+
+  /**
+   * @param cursor - null when sync finished
+   */
+  public void setAlarmSyncProgress(@Nullable String cursor, @Nullable Alarm pendingLastAlarm) {
+    setJsonData("asc", cursor);
+    setJsonData("pat", pendingLastAlarm == null ? null : pendingLastAlarm.getTime());
+    setJsonData("pai", pendingLastAlarm == null ? null : pendingLastAlarm.getAlarmId());
+    setJsonData("pad", pendingLastAlarm == null ? null : pendingLastAlarm.getLocalDate());
   }
 
   public void setIcon(String value) {
@@ -209,8 +288,13 @@ public final class ImouDeviceEntity extends DeviceBaseEntity
   }
 
   @UIContextMenuAction(value = "ALARM_MESSAGES", icon = "fas fa-person-circle-exclamation")
-  public ActionResponseModel retrieveAlarmMessages() {
-    return ActionResponseModel.showJson("Alarms", getService().getApi().getAlarmMessages(getIeeeAddress()));
+  public ActionResponseModel retrieveAlarmMessages(Context context) {
+    ImouAlarmStore alarmStore = context.getBean(ImouAlarmStore.class);
+    Instant to = Instant.now();
+    Instant from = to.minus(1, ChronoUnit.DAYS);
+    return ActionResponseModel.showJson("Alarms", Map.of(
+      "perHour", alarmStore.countPerHour(getIeeeAddress(), from, to),
+      "alarms", alarmStore.query(getIeeeAddress(), from, to)));
   }
 
   @UIContextMenuAction(value = "GET_LIVE_STREAM_INFO", icon = "fas fa-life-ring")
@@ -221,25 +305,81 @@ public final class ImouDeviceEntity extends DeviceBaseEntity
 
   @SneakyThrows
   public boolean tryUpdateDeviceEntity(ImouDeviceDTO device) {
-    long hashCode = getEntityHashCode();
-    setName(device.name);
-    setIeeeAddress(device.deviceId);
-    setJsonData("cat", device.deviceCatalog);
-    setJsonData("brand", device.brand);
-    setJsonData("tls", device.tlsEnable);
-    setJsonData("model", device.deviceModel);
-    Set<String> capabilities = Arrays.stream(device.ability.split(",")).collect(Collectors.toSet());
-    capabilities.add("MotionDetect");
-    if (capabilities.contains("WLM")) {
-      capabilities.add("Linkagewhitelight");
+    boolean updated = false;
+    if (!Objects.equals(getName(), device.name)) {
+      setName(device.name);
+      updated = true;
+    }
+    if (!Objects.equals(getIeeeAddress(), device.deviceId)) {
+      setIeeeAddress(device.deviceId);
+      updated = true;
     }
+    updated |= updateJsonData("cat", device.deviceCatalog);
+    updated |= updateJsonData("brand", device.brand);
+    updated |= updateJsonData("tls", device.tlsEnable);
+    if (updateJsonData("model", device.deviceModel)) {
+      setImageIdentifier(device.deviceModel + ".png");
+      updated = true;
+    }
+    // capabilities derived from raw ability string, rebuild them only if it changed
+    if (updateJsonData("ab", device.ability)) {
+      Set<String> capabilities = Arrays.stream(device.ability.split(",")).collect(Collectors.toSet());
+      capabilities.add("MotionDetect");
+      if (capabilities.contains("WLM")) {
+        capabilities.add("Linkagewhitelight");
+      }
+      setJsonDataList("cap", capabilities);
+      updated = true;
+    }
+    updated |= updateJsonData("ch", device.channelNum);
+    updated |= updateJsonData("fv", device.version);
+    updated |= updateJsonData("channels", OBJECT_MAPPER.writeValueAsString(device.channels));
+    return updated;
+  }
+
+  /**
+   * Fingerprint of device description last applied by discovery
+   */
+  @JsonIgnore
+  public long getDiscoveryFingerprint() {
+    return getJsonData().optLong("dfp", 0);
+  }
+
+  public void setDiscoveryFingerprint(long value) {
+    setJsonData("dfp", value);
+  }
 
-    setJsonDataList("cap", capabilities);
-    setJsonData("ch", device.channelNum);
-    setJsonData("fv", device.version);
-    setJsonData("channels", OBJECT_MAPPER.writeValueAsString(device.channels));
-    setImageIdentifier(device.deviceModel + ".png");
-    return hashCode != getEntityHashCode();
+  /**
+   * Id of project(account) that owns device. Assigned once by discovery, changed only by user. Devices discovered before multi project
+   * support belong to primary project
+   */
+  @UIField(order = 30)
+  @UIFieldShowOnCondition("return !context.get('compactMode')")
+  @UIFieldGroup("GENERAL")
+  @UIFieldEntityByClassSelection(ImouProjectEntity.class)
+  public @NotNull String getProjectID() {
+    return getJsonData("pid", PRIMARY_DEVICE);
+  }
+
+  public void setProjectID(@NotNull String value) {
+    setJsonData("pid", value);
+  }
+
+  /**
+   * @return owning project. Falls back to primary project if owner was removed
+   */
+  @JsonIgnore
+  public @NotNull ImouProjectEntity getProject() {
+    ImouProjectEntity project = context().db().get(ImouProjectEntity.class, getProjectID());
+    return project == null ? context().db().getRequire(ImouProjectEntity.class, PRIMARY_DEVICE) : project;
+  }
+
+  private boolean updateJsonData(String key, Object value) {
+    if (Objects.equals(String.valueOf(getJsonData().opt(key)), String.valueOf(value))) {
+      return false;
+    }
+    setJsonData(key, value);
+    return true;
   }
 
   @Override
@@ -252,8 +392,9 @@ public final class ImouDeviceEntity extends DeviceBaseEntity
 
   @Override
   public long getEntityServiceHashCode() {
+    // name, brand, firmware and channel states are informational and should not restart service
     return Objects.hashCode(getIeeeAddress()) +
-           getJsonDataHashCode("cat", "brand", "fdi", "ici", "tls", "model", "cap", "cat", "ch", "fv", "channels");
+           getJsonDataHashCode("cat", "fdi", "ici", "tls", "model", "cap", "ch");
   }
 
   @Override
@@ -320,10 +461,23 @@ public final class ImouDeviceEntity extends DeviceBaseEntity
 
   @Override
   public @NotNull List<OptionModel> getVideoSources() {
-    ImouDeviceLiveStreamsDTO info = getService().getApi().getLiveStreamInfo(getIeeeAddress());
-    return info.getStreams().stream().map(s ->
-      OptionModel.of(s.getHls(), "Stream %d. %s".formatted(s.getStreamId(), s.getHls()))
-        .setIcon(FFMPEGFormat.HLS.getIconModel())).toList();
+    List<OptionModel> sources = new ArrayList<>();
+    // local relay shares one upstream pull between all viewers
+    Optional<ImouProjectService> projectService = getProject().optService();
+    for (CameraProfile profile : CameraProfile.values()) {
+      String relayUrl = projectService.map(service -> service.getRelayUrl(getIeeeAddress(), profile)).orElse(null);
+      if (relayUrl != null) {
+        sources.add(OptionModel.of(relayUrl, "Relay %s. %s".formatted(profile, relayUrl)).setIcon(FFMPEGFormat.HLS.getIconModel()));
+      }
+    }
+    ImouDeviceLiveStreamsDTO info = getService().getApi().getLiveStreamCache().get(getIeeeAddress(), "0");
+    if (info.getStreams() != null) {
+      for (ImouDeviceLiveStreamsDTO.Stream s : info.getStreams()) {
+        sources.add(OptionModel.of(s.getHls(), "Stream %d. %s".formatted(s.getStreamId(), s.getHls()))
+          .setIcon(FFMPEGFormat.HLS.getIconModel()));
+      }
+    }
+    return sources;
   }
 
   @Override
@@ -361,7 +515,7 @@ public final class ImouDeviceEntity extends DeviceBaseEntity
       if (!entity.getStatus().isOnline()) {
         throw new ServerException("W.ERROR.OFFLINE");
       }
-      byte[] image = entity.getService().getSnapshot();
+      byte[] image = entity.getService().getOrTakeSnapshot();
       String encodedValue = "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(image);
       FileModel snapshot = new FileModel("Snapshot", encodedValue, FileContentType.image);
       return ActionResponseModel.showFile(snapshot);
@@ -4,6 +4,8 @@ import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
 import org.homio.addon.imou.internal.cloud.ImouAPI;
+import org.homio.addon.imou.internal.push.ImouPushReceiver;
+import org.homio.addon.imou.service.ImouParallelReader;
 import org.homio.api.AddonEntrypoint;
 import org.homio.api.Context;
 import org.jetbrains.annotations.NotNull;
@@ -27,9 +29,7 @@ public class ImouEntrypoint implements AddonEntrypoint {
   public void init() {
     context.setting().listenValue(ImouEntityCompactModeSetting.class, "imou-compact-mode",
       (value) -> context.ui().updateItems(ImouDeviceEntity.class));
-    ImouProjectEntity imouProjectEntity = ensureEntityExists(context);
-
-    ImouAPI.setProjectEntity(imouProjectEntity);
+    ensureEntityExists(context);
   }
 
   @SneakyThrows
@@ -40,6 +40,10 @@ public class ImouEntrypoint implements AddonEntrypoint {
   @Override
   public void destroy() {
     log.warn("Destroy imou entrypoint");
+    // project services and beans(@PreDestroy) are stopped by context, here only executors shared by all projects
+    ImouAPI.shutdown();
+    ImouParallelReader.shutdown();
+    ImouPushReceiver.shutdown();
   }
 
   public @NotNull ImouProjectEntity ensureEntityExists(Context context) {
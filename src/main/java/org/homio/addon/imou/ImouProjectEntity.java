@@ -7,13 +7,20 @@ import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import lombok.experimental.Accessors;
 import org.apache.commons.lang3.StringUtils;
+import org.homio.addon.imou.internal.cloud.ImouHttpClient;
+import org.homio.addon.imou.internal.cloud.ImouRateLimiter;
+import org.homio.addon.imou.service.ImouAlarmPictureFetcher;
+import org.homio.addon.imou.service.ImouAlarmStore;
 import org.homio.addon.imou.service.ImouDiscoveryService;
 import org.homio.addon.imou.service.ImouProjectService;
+import org.homio.addon.imou.service.ImouSnapshotStore;
 import org.homio.api.Context;
 import org.homio.api.entity.HasStatusAndMsg;
 import org.homio.api.entity.log.HasEntityLog;
 import org.homio.api.entity.types.MicroControllerBaseEntity;
 import org.homio.api.model.ActionResponseModel;
+import org.homio.api.model.FileContentType;
+import org.homio.api.model.FileModel;
 import org.homio.api.model.OptionModel.KeyValueEnum;
 import org.homio.api.model.Status;
 import org.homio.api.service.EntityService;
@@ -23,6 +30,7 @@ import org.homio.api.ui.field.UIField;
 import org.homio.api.ui.field.UIFieldGroup;
 import org.homio.api.ui.field.UIFieldLinkToEntity;
 import org.homio.api.ui.field.UIFieldLinkToEntity.NavEntityTitle;
+import org.homio.api.ui.field.UIFieldSlider;
 import org.homio.api.ui.field.UIFieldType;
 import org.homio.api.ui.field.action.UIContextMenuAction;
 import org.homio.api.ui.field.color.UIFieldColorRef;
@@ -39,12 +47,14 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import static org.homio.api.util.Constants.PRIMARY_DEVICE;
+
 @SuppressWarnings({"JpaAttributeTypeInspection", "JpaAttributeMemberSignatureInspection", "unused"})
 @Getter
 @Setter
 @Entity
 @Accessors(chain = true)
-@UISidebarChildren(icon = "fas fa-diagram-project", color = "#0088CC", allowCreateItem = false)
+@UISidebarChildren(icon = "fas fa-diagram-project", color = "#0088CC")
 public final class ImouProjectEntity extends MicroControllerBaseEntity
   implements EntityService<ImouProjectService>,
   HasStatusAndMsg, HasEntityLog {
@@ -54,6 +64,7 @@ public final class ImouProjectEntity extends MicroControllerBaseEntity
   public List<ImouDeviceInlineEntity> getCoordinatorDevices() {
     return context().db().findAll(ImouDeviceEntity.class)
       .stream()
+      .filter(device -> device.getProjectID().equals(getEntityID()))
       .sorted()
       .map(ImouDeviceInlineEntity::new)
       .collect(Collectors.toList());
@@ -103,6 +114,169 @@ public final class ImouProjectEntity extends MicroControllerBaseEntity
     setJsonData("dataCenter", value);
   }
 
+  @UIField(order = 1)
+  @UIFieldSlider(min = 1, max = 32)
+  @UIFieldGroup(value = "CONNECTION", order = 20, borderColor = "#3E8C9E")
+  public int getMaxConnections() {
+    return getJsonData("maxConn", ImouHttpClient.DEFAULT_MAX_CONNECTIONS);
+  }
+
+  public void setMaxConnections(int value) {
+    setJsonData("maxConn", value);
+  }
+
+  @UIField(order = 2)
+  @UIFieldSlider(min = 10, max = 120)
+  @UIFieldGroup("CONNECTION")
+  public int getStatusPollInterval() {
+    return getJsonData("spi", 30);
+  }
+
+  public void setStatusPollInterval(int value) {
+    setJsonData("spi", value);
+  }
+
+  @UIField(order = 3, hideInEdit = true, disableEdit = true)
+  @UIFieldGroup("CONNECTION")
+  public String getHttpStats() {
+    return ImouHttpClient.get(optService().map(ImouProjectService::getActiveDataCenter).orElse(getDataCenter())).getStats();
+  }
+
+  @UIField(order = 4, hideInEdit = true, disableEdit = true)
+  @UIFieldGroup("CONNECTION")
+  public String getDataCenterLatency() {
+    return optService().map(ImouProjectService::getDataCenterStats).orElse(null);
+  }
+
+  @UIField(order = 5)
+  @UIFieldGroup("CONNECTION")
+  public boolean isDataCenterFailover() {
+    return getJsonData("dcf", false);
+  }
+
+  public void setDataCenterFailover(boolean value) {
+    setJsonData("dcf", value);
+  }
+
+  @UIField(order = 1)
+  @UIFieldSlider(min = 1, max = 50)
+  @UIFieldGroup(value = "QUOTA", order = 25, borderColor = "#8C3E5B")
+  public int getRequestsPerSecond() {
+    return getJsonData("rps", ImouRateLimiter.DEFAULT_RATE);
+  }
+
+  public void setRequestsPerSecond(int value) {
+    setJsonData("rps", value);
+  }
+
+  @UIField(order = 2)
+  @UIFieldGroup("QUOTA")
+  public int getDailyQuota() {
+    return getJsonData("dq", ImouRateLimiter.DEFAULT_DAILY_QUOTA);
+  }
+
+  public void setDailyQuota(int value) {
+    setJsonData("dq", value);
+  }
+
+  @UIField(order = 3, hideInEdit = true, disableEdit = true)
+  @UIFieldGroup("QUOTA")
+  public String getQuotaStats() {
+    return optService().map(service -> service.getApi().getRateLimiter().getStats()).orElse(null);
+  }
+
+  @UIField(order = 4, hideInEdit = true, disableEdit = true)
+  @UIFieldGroup("QUOTA")
+  public String getApiStats() {
+    return optService().map(service -> service.getApi().getMetrics().getStats()).orElse(null);
+  }
+
+  @UIField(order = 1)
+  @UIFieldGroup(value = "PUSH", order = 30, borderColor = "#B5A33E")
+  public int getPushPort() {
+    return getJsonData("pushPort", 0);
+  }
+
+  public void setPushPort(int value) {
+    setJsonData("pushPort", value);
+  }
+
+  @UIField(order = 2)
+  @UIFieldGroup("PUSH")
+  public String getPushCallbackHost() {
+    return getJsonData("pushHost");
+  }
+
+  public void setPushCallbackHost(String value) {
+    setJsonData("pushHost", value);
+  }
+
+  @UIField(order = 3, hideInEdit = true, disableEdit = true)
+  @UIFieldGroup("PUSH")
+  public String getPushStats() {
+    return optService().map(service -> service.getPushReceiver().getStats()).orElse(null);
+  }
+
+  @UIField(order = 1)
+  @UIFieldSlider(min = 1, max = 256)
+  @UIFieldGroup(value = "SNAPSHOT", order = 35, borderColor = "#4E7A3A")
+  public int getSnapshotCacheSize() {
+    return getJsonData("scs", ImouSnapshotStore.DEFAULT_MEMORY_BUDGET_MB);
+  }
+
+  public void setSnapshotCacheSize(int value) {
+    setJsonData("scs", value);
+  }
+
+  @UIField(order = 2, hideInEdit = true, disableEdit = true)
+  @UIFieldGroup("SNAPSHOT")
+  public String getSnapshotStats() {
+    return context().getBean(ImouSnapshotStore.class).getStats();
+  }
+
+  @UIField(order = 1)
+  @UIFieldSlider(min = 1, max = 365)
+  @UIFieldGroup(value = "ALARMS", order = 40, borderColor = "#A6463A")
+  public int getAlarmRetentionDays() {
+    return getJsonData("ard", ImouAlarmStore.DEFAULT_RETENTION_DAYS);
+  }
+
+  public void setAlarmRetentionDays(int value) {
+    setJsonData("ard", value);
+  }
+
+  @UIField(order = 2, hideInEdit = true, disableEdit = true)
+  @UIFieldGroup("ALARMS")
+  public String getAlarmPictureStats() {
+    return context().getBean(ImouAlarmPictureFetcher.class).getStats();
+  }
+
+  @UIField(order = 1)
+  @UIFieldGroup(value = "RELAY", order = 45, borderColor = "#3A6EA6")
+  public int getRelayPort() {
+    return getJsonData("relayPort", 0);
+  }
+
+  public void setRelayPort(int value) {
+    setJsonData("relayPort", value);
+  }
+
+  @UIField(order = 2)
+  @UIFieldGroup("RELAY")
+  public String getRelayHost() {
+    return getJsonData("relayHost");
+  }
+
+  public void setRelayHost(String value) {
+    setJsonData("relayHost", value);
+  }
+
+  @UIField(order = 3, hideInEdit = true, disableEdit = true)
+  @UIFieldGroup("RELAY")
+  public String getRelayStats() {
+    return optService().map(service -> service.getHlsRelay().getStats()).orElse(null);
+  }
+
   @Override
   public String getDefaultName() {
     return "Imou project";
@@ -140,9 +314,12 @@ public final class ImouProjectEntity extends MicroControllerBaseEntity
     return errors;
   }
 
+  /**
+   * Only connection identity restarts service. Other settings are applied live by {@link ImouProjectService#entityUpdated}
+   */
   @Override
   public long getEntityServiceHashCode() {
-    return getJsonDataHashCode("appUID", "appSecret");
+    return getJsonDataHashCode("appUID", "appSecret", "dataCenter");
   }
 
   @UIContextMenuAction(value = "IMOU.SCAN_DEVICES", icon = "fas fa-barcode", iconColor = Color.PRIMARY_COLOR)
@@ -156,12 +333,27 @@ public final class ImouProjectEntity extends MicroControllerBaseEntity
   @UIContextMenuAction(value = "IMOU.GET_DEVICE_LIST", icon = "fas fa-tape")
   public ActionResponseModel getDevicesList(Context context) {
     return ActionResponseModel.showJson("Imou device list",
-      context.getBean(ImouDiscoveryService.class).getDeviceList(context));
+      context.getBean(ImouDiscoveryService.class).getDeviceList(this));
+  }
+
+  /**
+   * Download per path api metrics of this project in prometheus text format: request latency and rate limiter wait histograms,
+   * results by outcome and error code, requests in flight
+   */
+  @UIContextMenuAction(value = "IMOU.EXPORT_METRICS", icon = "fas fa-chart-line")
+  public ActionResponseModel exportMetrics() {
+    String metrics = getService().getApi().getMetrics().toPrometheus(getEntityID());
+    return ActionResponseModel.showFile(new FileModel("imou-metrics.prom", metrics, FileContentType.plaintext));
   }
 
+  /**
+   * Only primary project is mandatory. Project that still owns devices can't be removed, devices has to be moved to other project
+   * first
+   */
   @Override
   public boolean isDisableDelete() {
-    return true;
+    return PRIMARY_DEVICE.equals(getEntityID())
+           || context().db().findAll(ImouDeviceEntity.class).stream().anyMatch(device -> device.getProjectID().equals(getEntityID()));
   }
 
   @RequiredArgsConstructor
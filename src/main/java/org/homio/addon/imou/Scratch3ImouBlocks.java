@@ -20,7 +20,7 @@ public class Scratch3ImouBlocks extends Scratch3BaseDeviceBlocks {
       workspaceBlock -> {
         String ieeeAddress = workspaceBlock.getMenuValue(DEVICE, deviceMenu);
         ImouDeviceEntity entity = context.db().getRequire(ieeeAddress);
-        return new RawType(entity.getService().getSnapshot(), IMAGE_JPEG_VALUE);
+        return new RawType(entity.getService().getOrTakeSnapshot(), IMAGE_JPEG_VALUE);
       },
       block -> {
         block.addArgument(DEVICE, this.getDeviceMenu());
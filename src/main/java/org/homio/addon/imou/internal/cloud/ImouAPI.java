@@ -1,14 +1,21 @@
 package org.homio.addon.imou.internal.cloud;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.homio.addon.imou.ImouProjectEntity;
+import org.homio.addon.imou.ImouProjectEntity.DataCenter;
+import org.homio.addon.imou.internal.cloud.ImouCircuitBreaker.ImouCircuitOpenException;
+import org.homio.addon.imou.internal.cloud.ImouRateLimiter.ImouQuotaExceededException;
+import org.homio.addon.imou.internal.cloud.ImouRateLimiter.Priority;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceAlarmMessageDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceCallbackUrlDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceDTO;
@@ -18,53 +25,91 @@ import org.homio.addon.imou.internal.cloud.dto.ImouDeviceLiveBindDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceLiveStreamsDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceNightVisionModeDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceOnlineStatusDTO;
+import org.homio.addon.imou.internal.cloud.dto.ImouLiveStatusDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouSDCardDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouSDCardDTO.ImouSDCardStatusDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouTokenDTO;
-import org.homio.addon.imou.internal.cloud.dto.ResultResponse;
-import org.homio.addon.imou.internal.cloud.dto.ResultResponse.Response;
-import org.homio.api.exception.ServerException;
 import org.homio.api.model.Status;
 import org.homio.hquery.Curl;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.springframework.stereotype.Service;
 
-import java.lang.reflect.Type;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.net.http.HttpResponse.BodyHandlers;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
 
 import static org.homio.api.util.JsonUtils.OBJECT_MAPPER;
 
 /**
- * Implementation of the Imou OpenApi specification
+ * Implementation of the Imou OpenApi specification. Every call has non-blocking *Async variant built on HttpClient.sendAsync,
+ * synchronous methods just wait for it's result. Each project(account) owns own instance with separate token, rate budget, device
+ * breakers and live sessions
  */
 @Log4j2
-@Service
 public class ImouAPI {
 
-  public static final @NotNull Gson gson = new Gson();
+  public static final int DEVICE_PAGE_SIZE = 100;
+  public static final int ALARM_PAGE_SIZE = 30;
+  private static final Duration TIMEOUT = Duration.ofSeconds(60);
+  private static final ExecutorService ASYNC_EXECUTOR =
+    Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("imou-api-", 0).factory());
+  private static final int SNAPSHOT_CONCURRENCY = 4;
+  private static final long[] SNAPSHOT_RETRY_DELAYS = {300, 300, 500, 500, 1000, 1000, 2000, 2000, 3000};
+  private static final ExecutorService SNAPSHOT_EXECUTOR =
+    Executors.newFixedThreadPool(SNAPSHOT_CONCURRENCY, Thread.ofPlatform().name("imou-snapshot-", 0).daemon().factory());
+  private static final ObjectMapper RESPONSE_MAPPER = OBJECT_MAPPER.copy()
+    .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  // readers are immutable and thread safe, resolve DTO type once per class instead of per response
+  private static final ClassValue<ObjectReader> READERS = new ClassValue<>() {
+    @Override
+    protected ObjectReader computeValue(@NotNull Class<?> type) {
+      return RESPONSE_MAPPER.readerFor(type);
+    }
+  };
 
   @Setter
   @Getter
-  private static @Nullable ImouProjectEntity projectEntity;
-  private final ReentrantLock lock = new ReentrantLock();
-  private @Nullable String token;
+  private volatile @Nullable ImouProjectEntity projectEntity;
+  // used instead of project data center while it's unreachable. Never stored in project
+  @Getter
+  private volatile @Nullable DataCenter fallbackDataCenter;
+  private final ImouTokenManager tokenManager = new ImouTokenManager(this::fetchAccessToken);
+  private final Map<String, ImouCircuitBreaker> deviceBreakers = new ConcurrentHashMap<>();
+  private final Map<String, SnapshotCapture> snapshotCaptures = new ConcurrentHashMap<>();
+  @Getter
+  private final ImouLiveBindingPool liveBindingPool = new ImouLiveBindingPool(this);
+  @Getter
+  private final ImouLiveStreamCache liveStreamCache = new ImouLiveStreamCache(this);
+  @Getter
+  private final ImouApiMetrics metrics = new ImouApiMetrics();
+  @Getter
+  private final ImouRateLimiter rateLimiter = new ImouRateLimiter(ImouRateLimiter.DEFAULT_RATE, ImouRateLimiter.DEFAULT_DAILY_QUOTA);
 
-  private static @NotNull ImouProjectEntity assertApiReady() {
+  private @NotNull ImouProjectEntity assertApiReady() {
     ImouProjectEntity entity = projectEntity;
     if (entity == null) {
       throw new ImouApiNotReadyException();
@@ -72,7 +117,7 @@ public class ImouAPI {
     return entity;
   }
 
-  private static Map<String, Object> paramsInit(Map<String, Object> paramsMap, String appId, String appSecret) {
+  static Map<String, Object> paramsInit(Map<String, Object> paramsMap, String appId, String appSecret) {
     Map<String, Object> map = new HashMap<>();
     long time = System.currentTimeMillis() / 1000;
     String nonce = UUID.randomUUID().toString();
@@ -108,192 +153,534 @@ public class ImouAPI {
   }
 
   public boolean isConnected() {
-    return StringUtils.isNotEmpty(token);
+    return tokenManager.hasToken();
   }
 
-  @SneakyThrows
   public String login() {
-    if (token == null) {
-      try {
-        lock.lock();
-        if (token == null) {
-          ImouProjectEntity projectEntity = assertApiReady();
-          String rawResult = request("accessToken", Map.of());
-          Type responseType = TypeToken.getParameterized(ResultResponse.class, ImouTokenDTO.class).getType();
-          ResultResponse<ImouTokenDTO> resultResponse = Objects.requireNonNull(gson.fromJson(rawResult, responseType));
-          Response<ImouTokenDTO> result = resultResponse.getResult();
-          if (result.getCode().equals("0")) {
-            token = result.getData().getAccessToken();
-            projectEntity.setStatus(Status.ONLINE);
-          } else {
-            projectEntity.setStatus(Status.ERROR, "Code: %s. Msg: %s".formatted(result.getCode(), result.getMsg()));
-            throw new IllegalStateException("Imou get access token failed: %s".formatted(result));
-          }
-        }
-      } finally {
-        lock.unlock();
-      }
-    }
-    return token;
+    return tokenManager.getToken();
   }
 
-  public List<ImouDeviceDTO> getDeviceList(int nextPage) {
-    Map<String, Object> params = Map.of(
-      "queryRange", "1-100",
-      "token", login());
-    String response = request("deviceList", params);
-    try {
-      ImouDeviceListDTO dto = processResponse(response, ImouDeviceListDTO.class);
-      return dto.getDevices();
-    } catch (Exception ex) {
-      if (projectEntity != null) {
-        projectEntity.setStatus(Status.ERROR, ex.getMessage());
-      }
-      throw ex;
+  /**
+   * Route requests to other data center of same account without touching project settings. Token of previous data center is
+   * dropped
+   *
+   * @param dataCenter - null to return to project data center
+   */
+  public void setFallbackDataCenter(@Nullable DataCenter dataCenter) {
+    if (fallbackDataCenter != dataCenter) {
+      fallbackDataCenter = dataCenter;
+      tokenManager.invalidate();
     }
   }
 
+  /**
+   * @return data center requests are sent to
+   */
+  public @NotNull DataCenter getDataCenter() {
+    DataCenter fallback = fallbackDataCenter;
+    return fallback == null ? assertApiReady().getDataCenter() : fallback;
+  }
+
+  /**
+   * Drop cached token. Next request performs login with actual project credentials
+   */
+  public void logout() {
+    tokenManager.invalidate();
+  }
+
+  /**
+   * @param page - page number starting from 1
+   */
+  public List<ImouDeviceDTO> getDeviceList(int page, Priority priority) {
+    return await(getDeviceListAsync(page, priority));
+  }
+
+  public CompletableFuture<List<ImouDeviceDTO>> getDeviceListAsync(int page, Priority priority) {
+    String queryRange = "%d-%d".formatted((page - 1) * DEVICE_PAGE_SIZE + 1, page * DEVICE_PAGE_SIZE);
+    return this.<ImouDeviceListDTO>executeAsync("deviceList", Map.of("queryRange", queryRange), ImouDeviceListDTO.class, priority)
+      .whenComplete((dto, ex) -> {
+        ImouProjectEntity entity = projectEntity;
+        if (ex != null && entity != null) {
+          entity.setStatus(Status.ERROR, unwrap(ex).getMessage());
+        }
+      })
+      .thenApply(dto -> dto.getDevices() == null ? List.of() : dto.getDevices());
+  }
+
   public ImouDeviceOnlineStatusDTO getDeviceStatus(String deviceId) {
-    Map<String, Object> params = Map.of(
-      "deviceId", deviceId,
-      "token", login());
-    String response = request("deviceOnline", params);
-    return processResponse(response, ImouDeviceOnlineStatusDTO.class);
+    return await(getDeviceStatusAsync(deviceId));
   }
 
-  public ImouDeviceAlarmMessageDTO getAlarmMessages(String deviceId) {
-    Calendar beginTime = Calendar.getInstance();
-    beginTime.add(Calendar.DAY_OF_MONTH, -30);
-    Calendar endTime = Calendar.getInstance();
-    endTime.add(Calendar.DAY_OF_MONTH, 1);
+  public CompletableFuture<ImouDeviceOnlineStatusDTO> getDeviceStatusAsync(String deviceId) {
+    return requestAsync("deviceOnline", deviceId, ImouDeviceOnlineStatusDTO.class);
+  }
 
-    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+  /**
+   * @param beginTime   - epoch seconds. Only alarms not older than this are returned
+   * @param nextAlarmId - page cursor from previous response or -1 for first page
+   */
+  public ImouDeviceAlarmMessageDTO getAlarmMessages(String deviceId, long beginTime, String nextAlarmId, int count) {
+    return await(getAlarmMessagesAsync(deviceId, beginTime, nextAlarmId, count));
+  }
 
+  public CompletableFuture<ImouDeviceAlarmMessageDTO> getAlarmMessagesAsync(String deviceId, long beginTime, String nextAlarmId,
+    int count) {
+    DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
     Map<String, Object> params = Map.of(
       "deviceId", deviceId,
-      "count", "10",
+      "count", String.valueOf(count),
       "channelId", "0",
-      "beginTime", dateFormat.format(beginTime.getTime()),
-      "endTime", dateFormat.format(endTime.getTime()),
-      "token", login());
-    String response = request("getAlarmMessage", params);
-    return processResponse(response, ImouDeviceAlarmMessageDTO.class);
-
+      "nextAlarmId", nextAlarmId,
+      "beginTime", dateFormat.format(Instant.ofEpochSecond(beginTime)),
+      // cover device clock drift
+      "endTime", dateFormat.format(Instant.now().plus(1, ChronoUnit.DAYS)));
+    return executeAsync("getAlarmMessage", params, ImouDeviceAlarmMessageDTO.class, Priority.BACKGROUND);
   }
 
   public ImouDeviceNightVisionModeDTO getNightVisionMode(String deviceID) {
-    return request("getNightVisionMode", deviceID, "channelId", "0", ImouDeviceNightVisionModeDTO.class);
+    return await(getNightVisionModeAsync(deviceID));
+  }
+
+  public CompletableFuture<ImouDeviceNightVisionModeDTO> getNightVisionModeAsync(String deviceID) {
+    return requestAsync("getNightVisionMode", deviceID, "channelId", "0", ImouDeviceNightVisionModeDTO.class);
   }
 
   public void restart(String deviceId) {
-    request("restartDevice", Map.of("deviceId", deviceId, "token", login()));
+    await(restartAsync(deviceId));
+  }
+
+  public CompletableFuture<Void> restartAsync(String deviceId) {
+    return executeAsync("restartDevice", Map.of("deviceId", deviceId), ImouDeviceEmptyDTO.class, Priority.INTERACTIVE)
+      .thenApply(dto -> null);
   }
 
   public ImouSDCardStatusDTO getDeviceSDCardStatus(String deviceId) {
-    String status = request("deviceSdcardStatus", deviceId, ImouSDCardDTO.class).getStatus();
-    if ("normal".equals(status)) {
-      return request("deviceStorage", deviceId, ImouSDCardStatusDTO.class);
-    }
-    throw new RuntimeException(status);
+    return await(getDeviceSDCardStatusAsync(deviceId));
+  }
+
+  public CompletableFuture<ImouSDCardStatusDTO> getDeviceSDCardStatusAsync(String deviceId) {
+    return this.<ImouSDCardDTO>requestAsync("deviceSdcardStatus", deviceId, ImouSDCardDTO.class).thenCompose(dto -> {
+      if ("normal".equals(dto.getStatus())) {
+        return requestAsync("deviceStorage", deviceId, ImouSDCardStatusDTO.class);
+      }
+      return CompletableFuture.failedFuture(new RuntimeException(dto.getStatus()));
+    });
   }
 
   public ImouDeviceCallbackUrlDTO getMessageCallback(String deviceId) {
-    return request("getMessageCallback", deviceId, ImouDeviceCallbackUrlDTO.class);
+    return await(getMessageCallbackAsync(deviceId));
+  }
+
+  public CompletableFuture<ImouDeviceCallbackUrlDTO> getMessageCallbackAsync(String deviceId) {
+    return requestAsync("getMessageCallback", deviceId, ImouDeviceCallbackUrlDTO.class);
   }
 
   public void setDeviceCameraStatus(String deviceId, String endpointEntityID, boolean on) {
+    await(setDeviceCameraStatusAsync(deviceId, endpointEntityID, on));
+  }
+
+  public CompletableFuture<Void> setDeviceCameraStatusAsync(String deviceId, String endpointEntityID, boolean on) {
     Map<String, Object> params = Map.of(
       "deviceId", deviceId,
       "enableType", endpointEntityID,
-      "enable", on,
-      "token", login());
-    String response = request("setDeviceCameraStatus", params);
-    processResponse(response, ImouDeviceEmptyDTO.class);
+      "enable", on);
+    return executeAsync("setDeviceCameraStatus", params, ImouDeviceEmptyDTO.class, Priority.INTERACTIVE).thenApply(dto -> null);
   }
 
   public void setMessageCallback(String url) {
+    await(setMessageCallbackAsync(url));
+  }
+
+  public CompletableFuture<Void> setMessageCallbackAsync(String url) {
     Map<String, Object> params = Map.of(
       "callbackUrl", url,
       "callbackFlag", "alarm,deviceStatus",
-      "status", url.isEmpty() ? "off" : "on",
-      "token", login());
-    String response = request("setMessageCallback", params);
-    processResponse(response, ImouDeviceEmptyDTO.class);
+      "status", url.isEmpty() ? "off" : "on");
+    return executeAsync("setMessageCallback", params, ImouDeviceEmptyDTO.class, Priority.INTERACTIVE).thenApply(dto -> null);
   }
 
-  @SneakyThrows
   public byte[] getSnapshot(String deviceId) {
-    Map<String, Object> params = Map.of(
-      "deviceId", deviceId,
-      "channelId", "0",
-      "token", login());
-    String response = request("setDeviceSnapEnhanced", params);
-    DeviceSnapEnhancedDTO dto = processResponse(response, DeviceSnapEnhancedDTO.class);
-    Thread.sleep(1500);
-    return Curl.download(dto.url).getBytes();
+    return await(getSnapshotAsync(deviceId));
+  }
+
+  /**
+   * Ask device to capture image and download it once uploaded. Concurrent calls for same device share one capture. Every caller
+   * gets own copy, capture itself is cancelled when last waiting caller cancels it's copy
+   */
+  public CompletableFuture<byte[]> getSnapshotAsync(String deviceId) {
+    SnapshotCapture capture = snapshotCaptures.compute(deviceId, (id, existing) -> {
+      SnapshotCapture value = existing == null || existing.future.isDone() ? startSnapshotCapture(id) : existing;
+      value.waiters.incrementAndGet();
+      return value;
+    });
+    capture.future.whenComplete((image, ex) -> snapshotCaptures.remove(deviceId, capture));
+    CompletableFuture<byte[]> copy = capture.future.copy();
+    copy.whenComplete((image, ex) -> {
+      if (copy.isCancelled()) {
+        releaseSnapshotWaiter(deviceId, capture);
+      }
+    });
+    return copy;
+  }
+
+  private SnapshotCapture startSnapshotCapture(String deviceId) {
+    CompletableFuture<byte[]> future = new CompletableFuture<>();
+    CompletableFuture<DeviceSnapEnhancedDTO> snap = executeAsync("setDeviceSnapEnhanced",
+      Map.of("deviceId", deviceId, "channelId", "0"), DeviceSnapEnhancedDTO.class, Priority.INTERACTIVE);
+    forward(snap.thenCompose(dto -> downloadSnapshot(dto.getUrl(), 0, future)), future);
+    // no-op if capture finished, otherwise aborts request in flight. Pending download attempts check capture state themselves
+    future.whenComplete((image, ex) -> snap.cancel(true));
+    return new SnapshotCapture(future, new AtomicInteger());
+  }
+
+  private void releaseSnapshotWaiter(String deviceId, SnapshotCapture capture) {
+    boolean[] lastWaiter = {false};
+    // same bin lock as getSnapshotAsync, so new caller either joins capture before it's cancelled or starts new one
+    snapshotCaptures.computeIfPresent(deviceId, (id, existing) -> {
+      if (existing == capture && capture.waiters.decrementAndGet() == 0) {
+        lastWaiter[0] = true;
+        return null;
+      }
+      return existing;
+    });
+    if (lastWaiter[0]) {
+      capture.future.cancel(true);
+    }
   }
 
   public ImouDeviceLiveBindDTO createBindDeviceLive(String deviceId, CameraProfile profile) {
+    return await(createBindDeviceLiveAsync(deviceId, profile));
+  }
+
+  public CompletableFuture<ImouDeviceLiveBindDTO> createBindDeviceLiveAsync(String deviceId, CameraProfile profile) {
     Map<String, Object> params = Map.of(
       "deviceId", deviceId,
       "channelId", "0",
-      "streamId", profile.ordinal(),
-      "token", login());
-    String response = request("bindDeviceLive", params);
-    return processResponse(response, ImouDeviceLiveBindDTO.class);
+      "streamId", profile.ordinal());
+    return executeAsync("bindDeviceLive", params, ImouDeviceLiveBindDTO.class, Priority.INTERACTIVE)
+      .whenComplete((dto, ex) -> liveStreamCache.invalidate(deviceId));
+  }
+
+  public CompletableFuture<Void> unbindLiveAsync(String deviceId, String liveToken) {
+    return executeAsync("unbindLive", Map.of("liveToken", liveToken), ImouDeviceEmptyDTO.class, Priority.BACKGROUND)
+      .whenComplete((dto, ex) -> liveStreamCache.invalidate(deviceId))
+      .thenApply(dto -> null);
+  }
+
+  public CompletableFuture<ImouLiveStatusDTO> queryLiveStatusAsync(String liveToken) {
+    return executeAsync("queryLiveStatus", Map.of("liveToken", liveToken), ImouLiveStatusDTO.class, Priority.BACKGROUND);
   }
 
   public ImouDeviceLiveStreamsDTO getLiveStreamInfo(String deviceId) {
-    Map<String, Object> params = Map.of(
-      "deviceId", deviceId,
-      "channelId", "0",
-      "token", login());
-    String response = request("getLiveStreamInfo", params);
-    return processResponse(response, ImouDeviceLiveStreamsDTO.class);
+    return await(getLiveStreamInfoAsync(deviceId));
   }
 
-  @SneakyThrows
-  private <T> T processResponse(@NotNull String contentString, @NotNull Type type) {
-    Type responseType = TypeToken.getParameterized(ResultResponse.class, type).getType();
-    ResultResponse<T> resultResponse = Objects.requireNonNull(gson.fromJson(contentString, responseType));
-    Response<T> result = resultResponse.getResult();
-    if ("0".equals(result.getCode())) {
-      return result.getData();
-    }
-    throw new IllegalStateException("%s:%s".formatted(result.getCode(), result.getMsg()));
+  public CompletableFuture<ImouDeviceLiveStreamsDTO> getLiveStreamInfoAsync(String deviceId) {
+    return getLiveStreamInfoAsync(deviceId, "0");
+  }
+
+  public CompletableFuture<ImouDeviceLiveStreamsDTO> getLiveStreamInfoAsync(String deviceId, String channelId) {
+    return executeAsync("getLiveStreamInfo", Map.of("deviceId", deviceId, "channelId", channelId), ImouDeviceLiveStreamsDTO.class,
+      Priority.INTERACTIVE);
   }
 
   public <T> T request(String path, String deviceId, String key, String value, Class<T> responseType) {
-    Map<String, Object> params = Map.of(
-      "deviceId", deviceId,
-      key, value,
-      "token", login());
-    String response = request(path, params);
-    return processResponse(response, responseType);
+    return await(requestAsync(path, deviceId, key, value, responseType));
+  }
+
+  public <T> CompletableFuture<T> requestAsync(String path, String deviceId, String key, String value, Class<T> responseType) {
+    return executeAsync(path, Map.of("deviceId", deviceId, key, value), responseType, Priority.BACKGROUND);
   }
 
   public <T> T request(String path, String deviceId, Class<T> responseType) {
-    Map<String, Object> params = Map.of(
-      "deviceId", deviceId,
-      "token", login());
-    String response = request(path, params);
-    return processResponse(response, responseType);
+    return await(requestAsync(path, deviceId, responseType));
   }
 
-  @SneakyThrows
-  private String request(String path, Map<String, Object> params) {
+  public <T> CompletableFuture<T> requestAsync(String path, String deviceId, Class<T> responseType) {
+    return executeAsync(path, Map.of("deviceId", deviceId), responseType, Priority.BACKGROUND);
+  }
+
+  /**
+   * @return null if device circuit breaker closed, otherwise breaker state description
+   */
+  public @Nullable String getDeviceCircuitMessage(@NotNull String deviceId) {
+    ImouCircuitBreaker breaker = deviceBreakers.get(deviceId);
+    return breaker == null ? null : breaker.getStatusMessage();
+  }
+
+  public boolean isDeviceCircuitOpen(@NotNull String deviceId) {
+    ImouCircuitBreaker breaker = deviceBreakers.get(deviceId);
+    return breaker != null && breaker.isRejecting();
+  }
+
+  /**
+   * Stop shared executors and http clients of all projects. Called once when addon is unloaded
+   */
+  public static void shutdown() {
+    ASYNC_EXECUTOR.shutdownNow();
+    SNAPSHOT_EXECUTOR.shutdownNow();
+    ImouTokenManager.shutdown();
+    ImouLiveBindingPool.shutdown();
+    ImouHttpClient.shutdown();
+  }
+
+  /**
+   * Wait for future result on calling thread. Unwraps CompletionException so callers receive original error. Interrupted wait(reader
+   * cancelled by poll deadline) cancels future, so request in flight is aborted as well
+   */
+  public static <T> T await(@NotNull CompletableFuture<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Imou request interrupted");
+    } catch (ExecutionException | CancellationException ex) {
+      Throwable cause = unwrap(ex);
+      if (cause instanceof RuntimeException re) {
+        throw re;
+      }
+      throw new IllegalStateException(cause.getMessage(), cause);
+    }
+  }
+
+  static Throwable unwrap(Throwable ex) {
+    while ((ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null) {
+      ex = ex.getCause();
+    }
+    return ex;
+  }
+
+  private static <T> void forward(CompletableFuture<? extends T> source, CompletableFuture<T> target) {
+    source.whenComplete((value, error) -> {
+      if (error == null) {
+        target.complete(value);
+      } else {
+        target.completeExceptionally(unwrap(error));
+      }
+    });
+  }
+
+  /**
+   * Returned future is created upfront and passed down the chain as cancel signal: if caller cancels it(or it completes by any other
+   * way first), request is not sent after rate limiter wait and http exchange in flight is cancelled
+   */
+  private <T> CompletableFuture<T> executeAsync(String path, Map<String, Object> params, Class<T> responseType, Priority priority) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    Object deviceId = params.get("deviceId");
+    if (deviceId == null) {
+      forward(this.<T>executeWithTokenAsync(path, params, responseType, priority, result)
+        .orTimeout(TIMEOUT.toSeconds(), TimeUnit.SECONDS), result);
+      return result;
+    }
+    ImouCircuitBreaker breaker = deviceBreakers.computeIfAbsent(deviceId.toString(), ImouCircuitBreaker::new);
+    try {
+      breaker.acquire();
+    } catch (ImouCircuitOpenException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+    forward(this.<T>executeWithTokenAsync(path, params, responseType, priority, result)
+      .orTimeout(TIMEOUT.toSeconds(), TimeUnit.SECONDS)
+      .whenComplete((value, error) -> {
+        Throwable ex = error == null ? null : unwrap(error);
+        if (ex == null) {
+          breaker.onSuccess();
+        } else if (ex instanceof ImouApiException apiException) {
+          // cloud answered. count only errors which mean device not reachable
+          if (apiException.isDeviceUnreachable()) {
+            breaker.onFailure();
+          } else {
+            breaker.onSuccess();
+          }
+        } else if (ex instanceof ImouCircuitOpenException || ex instanceof ImouQuotaExceededException
+                   || ex instanceof ImouApiNotReadyException || ex instanceof CancellationException) {
+          breaker.onIgnored();
+        } else {
+          breaker.onFailure();
+        }
+      }), result);
+    return result;
+  }
+
+  /**
+   * Send authorized request. If cloud rejects token - re-login once and replay request
+   */
+  private <T> CompletableFuture<T> executeWithTokenAsync(String path, Map<String, Object> params, Class<T> responseType,
+    Priority priority, CompletableFuture<?> caller) {
+    return CompletableFuture.supplyAsync(tokenManager::getToken, ASYNC_EXECUTOR).thenCompose(token ->
+      this.<T>sendAsync(path, withToken(params, token), responseType, priority, caller).exceptionallyCompose(error -> {
+        if (unwrap(error) instanceof ImouApiException ex && ImouTokenManager.TOKEN_INVALID_CODES.contains(ex.getCode())) {
+          return CompletableFuture.supplyAsync(() -> tokenManager.renew(token), ASYNC_EXECUTOR)
+            .thenCompose(newToken -> sendAsync(path, withToken(params, newToken), responseType, priority, caller));
+        }
+        return CompletableFuture.failedFuture(error);
+      }));
+  }
+
+  /**
+   * Single cloud exchange. Measured per path: http exchange latency and wait for rate limiter permit separately
+   */
+  private <T> CompletableFuture<T> sendAsync(String path, Map<String, Object> params, Class<T> responseType, Priority priority,
+    @Nullable CompletableFuture<?> caller) {
+    ImouApiMetrics.Operation operation = metrics.start(path);
+    long queued = System.nanoTime();
+    // exchange start is set once rate limiter permit acquired. Rejected requests never reach histogram
+    AtomicLong exchangeStart = new AtomicLong(queued);
+    return requestAsync(path, params, priority, caller, waited -> {
+      operation.recordWait(waited - queued);
+      exchangeStart.set(waited);
+    }).thenApply(body -> processResponse(body, responseType))
+      .whenComplete((result, error) -> operation.stop(exchangeStart.get(), error == null ? null : unwrap(error)));
+  }
+
+  private static Map<String, Object> withToken(Map<String, Object> params, String token) {
+    Map<String, Object> map = new HashMap<>(params);
+    map.put("token", token);
+    return map;
+  }
+
+  private ImouTokenDTO fetchAccessToken() {
     ImouProjectEntity projectEntity = assertApiReady();
-    Map<String, Object> map = paramsInit(params, projectEntity.getAppUID(), projectEntity.getAppSecret().asString());
-    String json = OBJECT_MAPPER.writeValueAsString(map);
-    HttpRequest request = Curl.createPostRequest(projectEntity.getDataCenter().getUrl() + path, json);
-    HttpResponse<String> response = HttpClient.newBuilder().build().send(request, BodyHandlers.ofString());
-    if (response.statusCode() == 200) {
-      return response.body();
-    } else {
-      throw new ServerException("Request failed " + response.body());
+    try {
+      ImouTokenDTO dto = await(sendAsync("accessToken", Map.of(), ImouTokenDTO.class, Priority.INTERACTIVE, null));
+      projectEntity.setStatus(Status.ONLINE);
+      return dto;
+    } catch (ImouApiException ex) {
+      projectEntity.setStatus(Status.ERROR, "Code: %s. Msg: %s".formatted(ex.getCode(), ex.getMsg()));
+      throw new IllegalStateException("Imou get access token failed: %s".formatted(ex.getMessage()));
+    }
+  }
+
+  /**
+   * Decode response straight from stream. Reads result.code first and binds data only for successful response. If cloud sends data
+   * before code - data is buffered as tokens without building DTO
+   */
+  @SneakyThrows
+  static <T> T processResponse(@NotNull InputStream content, @NotNull Class<T> type) {
+    try (content; JsonParser parser = RESPONSE_MAPPER.createParser(content)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IllegalStateException("Unexpected imou response: " + parser.currentToken());
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.currentName();
+        parser.nextToken();
+        if ("result".equals(name) && parser.currentToken() == JsonToken.START_OBJECT) {
+          return readResult(parser, READERS.get(type));
+        }
+        parser.skipChildren();
+      }
+      throw new IllegalStateException("Imou response has no result");
     }
   }
 
+  private static <T> T readResult(JsonParser parser, ObjectReader reader) throws IOException {
+    String code = null;
+    String msg = null;
+    TokenBuffer pendingData = null;
+    T data = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.currentName();
+      parser.nextToken();
+      switch (name) {
+        case "code" -> code = parser.getValueAsString();
+        case "msg" -> msg = parser.getValueAsString();
+        case "data" -> {
+          if (code == null) {
+            pendingData = new TokenBuffer(parser);
+            pendingData.copyCurrentStructure(parser);
+          } else if ("0".equals(code)) {
+            data = reader.readValue(parser);
+          } else {
+            parser.skipChildren();
+          }
+        }
+        default -> parser.skipChildren();
+      }
+    }
+    if (!"0".equals(code)) {
+      throw new ImouApiException(code, msg);
+    }
+    if (pendingData != null) {
+      try (JsonParser dataParser = pendingData.asParser(parser.getCodec())) {
+        data = reader.readValue(dataParser);
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Sign and send request. Waiting for rate limiter permit happens on virtual thread, http exchange itself is non-blocking
+   *
+   * @param caller         - cancel signal. Request is skipped or aborted once caller future is completed
+   * @param permitAcquired - receives System.nanoTime() when rate limiter permit acquired, i.e. right before http exchange
+   */
+  private CompletableFuture<InputStream> requestAsync(String path, Map<String, Object> params, Priority priority,
+    @Nullable CompletableFuture<?> caller, LongConsumer permitAcquired) {
+    return CompletableFuture.supplyAsync(() -> {
+      ImouProjectEntity projectEntity = assertApiReady();
+      ImouHttpClient client = ImouHttpClient.get(getDataCenter(), projectEntity.getEntityID(),
+        projectEntity.getMaxConnections());
+      // fail fast without spending rate budget or waiting for permit if data center is down
+      ImouCircuitBreaker breaker = client.getCircuitBreaker();
+      if (breaker.isRejecting()) {
+        throw new ImouCircuitOpenException(breaker.getStatusMessage());
+      }
+      rateLimiter.configure(projectEntity.getRequestsPerSecond(), projectEntity.getDailyQuota());
+      rateLimiter.acquire(priority);
+      permitAcquired.accept(System.nanoTime());
+      if (caller != null && caller.isDone()) {
+        throw new CancellationException("Imou request %s cancelled".formatted(path));
+      }
+      Map<String, Object> map = paramsInit(params, projectEntity.getAppUID(), projectEntity.getAppSecret().asString());
+      String json = writeJson(map);
+      CompletableFuture<InputStream> exchange = client.postAsync(path, json);
+      if (caller != null) {
+        // no-op if exchange already finished. Response body is closed by processResponse in that case
+        caller.whenComplete((value, error) -> exchange.cancel(true));
+      }
+      return exchange;
+    }, ASYNC_EXECUTOR).thenCompose(future -> future);
+  }
+
+  /**
+   * Device uploads image to returned url asynchronously, so poll it with short delays until it's ready
+   */
+  private static CompletableFuture<byte[]> downloadSnapshot(String url, int attempt, CompletableFuture<byte[]> capture) {
+    Executor delayedExecutor = CompletableFuture.delayedExecutor(SNAPSHOT_RETRY_DELAYS[attempt], TimeUnit.MILLISECONDS,
+      SNAPSHOT_EXECUTOR);
+    return CompletableFuture.supplyAsync(() -> capture.isDone() ? null : tryDownloadSnapshot(url), delayedExecutor)
+      .thenCompose(image -> {
+        if (image != null) {
+          return CompletableFuture.completedFuture(image);
+        }
+        if (capture.isDone()) {
+          return CompletableFuture.failedFuture(new CancellationException("Imou snapshot cancelled"));
+        }
+        if (attempt + 1 == SNAPSHOT_RETRY_DELAYS.length) {
+          return CompletableFuture.failedFuture(new IllegalStateException("Imou snapshot not ready: " + url));
+        }
+        return downloadSnapshot(url, attempt + 1, capture);
+      });
+  }
+
+  private static byte[] tryDownloadSnapshot(String url) {
+    try {
+      byte[] image = Curl.download(url).getBytes();
+      // until upload finished storage replies with error page
+      if (image != null && image.length > 2 && image[0] == (byte) 0xFF && image[1] == (byte) 0xD8) {
+        return image;
+      }
+    } catch (Exception ex) {
+      log.debug("Imou snapshot not ready yet: {}", ex.getMessage());
+    }
+    return null;
+  }
+
+  @SneakyThrows
+  private static String writeJson(Map<String, Object> map) {
+    return OBJECT_MAPPER.writeValueAsString(map);
+  }
+
   public enum CameraProfile {
     HD, SD
   }
@@ -307,6 +694,33 @@ public class ImouAPI {
   }
 
   @Getter
+  public static class ImouApiException extends IllegalStateException {
+
+    // device offline, device not responding, device sleeping
+    private static final Set<String> DEVICE_UNREACHABLE_CODES = Set.of("DV1007", "DV1027", "DV1030", "DV1049");
+
+    private final String code;
+    private final String msg;
+
+    public ImouApiException(String code, String msg) {
+      super("%s:%s".formatted(code, msg));
+      this.code = code;
+      this.msg = msg;
+    }
+
+    public boolean isDeviceUnreachable() {
+      String message = msg == null ? "" : msg.toLowerCase();
+      return DEVICE_UNREACHABLE_CODES.contains(code) || message.contains("offline") || message.contains("timeout")
+             || message.contains("time out");
+    }
+  }
+
+  private record SnapshotCapture(CompletableFuture<byte[]> future, AtomicInteger waiters) {
+
+  }
+
+  @Getter
+  @Setter
   private static class DeviceSnapEnhancedDTO {
 
     private String url;
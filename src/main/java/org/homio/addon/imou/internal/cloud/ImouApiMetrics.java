@@ -0,0 +1,254 @@
+package org.homio.addon.imou.internal.cloud;
+
+import org.homio.addon.imou.internal.cloud.ImouAPI.ImouApiException;
+import org.homio.addon.imou.internal.cloud.ImouAPI.ImouApiNotReadyException;
+import org.homio.addon.imou.internal.cloud.ImouCircuitBreaker.ImouCircuitOpenException;
+import org.homio.addon.imou.internal.cloud.ImouRateLimiter.ImouQuotaExceededException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per OpenApi path request metrics: latency histogram, rate limiter wait histogram, outcome counters, api error codes and in-flight
+ * gauge. Latency covers http exchange and response parsing only, time spent waiting for rate limiter permit is tracked separately.
+ * Histograms use preallocated log-linear buckets(HdrHistogram-like, ~12% precision) over microseconds, so recording is few atomic
+ * increments and never allocates.
+ */
+public class ImouApiMetrics {
+
+  // sub buckets per power of two. 8 gives 1/8 relative precision
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // values up to 2^40us(~12 days) are tracked, bigger ones fall into last bucket
+  private static final int MAX_BITS = 40;
+  private static final int BUCKETS = (MAX_BITS - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+  // prometheus histogram bounds in seconds
+  private static final double[] EXPORT_BOUNDS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+  private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+  /**
+   * Register request start. Returned operation must be stopped with same start time
+   */
+  public @NotNull Operation start(@NotNull String path) {
+    Operation operation = operations.get(path);
+    if (operation == null) {
+      operation = operations.computeIfAbsent(path, Operation::new);
+    }
+    operation.inFlight.incrementAndGet();
+    return operation;
+  }
+
+  /**
+   * @return short per path summary ordered by path
+   */
+  public @NotNull String getStats() {
+    StringJoiner stats = new StringJoiner("; ");
+    for (Operation operation : new TreeMap<>(operations).values()) {
+      stats.add("%s: %d req, p50 %dms, p99 %dms, wait p99 %dms, err %d, in-flight %d".formatted(operation.path,
+        operation.getCount(), getPercentile(operation.histogram, 0.5) / 1000, getPercentile(operation.histogram, 0.99) / 1000,
+        getPercentile(operation.waitHistogram, 0.99) / 1000, operation.apiErrors.sum() + operation.httpErrors.sum(),
+        operation.inFlight.get()));
+    }
+    return stats.length() == 0 ? "No requests" : stats.toString();
+  }
+
+  /**
+   * Export in prometheus text exposition format
+   */
+  public @NotNull String toPrometheus(@NotNull String project) {
+    StringBuilder text = new StringBuilder();
+    text.append("# HELP imou_api_request_seconds Imou OpenApi request latency, http exchange only\n");
+    text.append("# TYPE imou_api_request_seconds histogram\n");
+    for (Operation operation : new TreeMap<>(operations).values()) {
+      appendHistogram(text, "imou_api_request_seconds", labels(project, operation), operation.histogram, operation.sumMicros);
+    }
+    text.append("# HELP imou_api_rate_limit_wait_seconds Imou OpenApi request wait for rate limiter permit\n");
+    text.append("# TYPE imou_api_rate_limit_wait_seconds histogram\n");
+    for (Operation operation : new TreeMap<>(operations).values()) {
+      appendHistogram(text, "imou_api_rate_limit_wait_seconds", labels(project, operation), operation.waitHistogram,
+        operation.waitSumMicros);
+    }
+    text.append("# HELP imou_api_requests_total Imou OpenApi requests by result\n");
+    text.append("# TYPE imou_api_requests_total counter\n");
+    for (Operation operation : new TreeMap<>(operations).values()) {
+      String labels = labels(project, operation);
+      appendResult(text, labels, "success", operation.success.sum());
+      appendResult(text, labels, "api_error", operation.apiErrors.sum());
+      appendResult(text, labels, "http_error", operation.httpErrors.sum());
+      appendResult(text, labels, "rejected", operation.rejected.sum());
+    }
+    text.append("# HELP imou_api_errors_total Imou OpenApi error responses by code\n");
+    text.append("# TYPE imou_api_errors_total counter\n");
+    for (Operation operation : new TreeMap<>(operations).values()) {
+      for (Map.Entry<String, LongAdder> entry : new TreeMap<>(operation.errorCodes).entrySet()) {
+        text.append("imou_api_errors_total{project=\"%s\",path=\"%s\",code=\"%s\"} %d\n".formatted(escape(project),
+          escape(operation.path), escape(entry.getKey()), entry.getValue().sum()));
+      }
+    }
+    text.append("# HELP imou_api_in_flight Imou OpenApi requests in flight\n");
+    text.append("# TYPE imou_api_in_flight gauge\n");
+    for (Operation operation : new TreeMap<>(operations).values()) {
+      text.append("imou_api_in_flight{project=\"%s\",path=\"%s\"} %d\n".formatted(escape(project), escape(operation.path),
+        operation.inFlight.get()));
+    }
+    return text.toString();
+  }
+
+  static int bucketIndex(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) Math.max(0, micros);
+    }
+    int highestBit = 63 - Long.numberOfLeadingZeros(micros);
+    int shift = highestBit - SUB_BUCKET_BITS;
+    int index = (shift + 1) * SUB_BUCKETS + (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+    return Math.min(index, BUCKETS - 1);
+  }
+
+  /**
+   * @return exclusive upper bound of bucket in microseconds
+   */
+  static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index + 1;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+    return (subBucket + 1) << shift;
+  }
+
+  private static void appendHistogram(StringBuilder text, String name, String labels, AtomicLongArray histogram,
+    LongAdder sumMicros) {
+    long[] counts = snapshot(histogram);
+    long cumulative = 0;
+    int bucket = 0;
+    for (double bound : EXPORT_BOUNDS) {
+      long boundMicros = (long) (bound * 1_000_000);
+      while (bucket < BUCKETS && upperBound(bucket) <= boundMicros) {
+        cumulative += counts[bucket++];
+      }
+      text.append("%s_bucket{%s,le=\"%s\"} %d\n".formatted(name, labels, bound, cumulative));
+    }
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    text.append("%s_bucket{%s,le=\"+Inf\"} %d\n".formatted(name, labels, total));
+    text.append("%s_sum{%s} %f\n".formatted(name, labels, sumMicros.sum() / 1_000_000D));
+    text.append("%s_count{%s} %d\n".formatted(name, labels, total));
+  }
+
+  private static long[] snapshot(AtomicLongArray histogram) {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = histogram.get(i);
+    }
+    return counts;
+  }
+
+  /**
+   * @return latency percentile upper bound in microseconds
+   */
+  private static long getPercentile(AtomicLongArray histogram, double percentile) {
+    long[] counts = snapshot(histogram);
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return upperBound(i);
+      }
+    }
+    return upperBound(BUCKETS - 1);
+  }
+
+  private static String labels(String project, Operation operation) {
+    return "project=\"%s\",path=\"%s\"".formatted(escape(project), escape(operation.path));
+  }
+
+  private static void appendResult(StringBuilder text, String labels, String result, long value) {
+    text.append("imou_api_requests_total{%s,result=\"%s\"} %d\n".formatted(labels, result, value));
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+
+  public static class Operation {
+
+    private final String path;
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final LongAdder sumMicros = new LongAdder();
+    private final AtomicLongArray waitHistogram = new AtomicLongArray(BUCKETS);
+    private final LongAdder waitSumMicros = new LongAdder();
+    private final LongAdder success = new LongAdder();
+    private final LongAdder apiErrors = new LongAdder();
+    private final LongAdder httpErrors = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final Map<String, LongAdder> errorCodes = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private Operation(String path) {
+      this.path = path;
+    }
+
+    /**
+     * Record time request spent waiting for rate limiter permit
+     */
+    public void recordWait(long waitNanos) {
+      long micros = TimeUnit.NANOSECONDS.toMicros(waitNanos);
+      waitHistogram.incrementAndGet(bucketIndex(micros));
+      waitSumMicros.add(micros);
+    }
+
+    /**
+     * @param startNanos - System.nanoTime() taken right before http exchange. Requests rejected before exchange are only counted
+     * @param error      - unwrapped failure or null
+     */
+    public void stop(long startNanos, @Nullable Throwable error) {
+      inFlight.decrementAndGet();
+      long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+      if (error == null) {
+        success.increment();
+      } else if (error instanceof ImouApiException apiException) {
+        apiErrors.increment();
+        // map grows only by new error codes
+        String code = String.valueOf(apiException.getCode());
+        LongAdder codeCounter = errorCodes.get(code);
+        if (codeCounter == null) {
+          codeCounter = errorCodes.computeIfAbsent(code, key -> new LongAdder());
+        }
+        codeCounter.increment();
+      } else if (error instanceof ImouCircuitOpenException || error instanceof ImouQuotaExceededException
+                 || error instanceof ImouApiNotReadyException || error instanceof CancellationException) {
+        // request never reached cloud, keep it out of latency histogram
+        rejected.increment();
+        return;
+      } else {
+        httpErrors.increment();
+      }
+      histogram.incrementAndGet(bucketIndex(micros));
+      sumMicros.add(micros);
+    }
+
+    private long getCount() {
+      return success.sum() + apiErrors.sum() + httpErrors.sum();
+    }
+  }
+}
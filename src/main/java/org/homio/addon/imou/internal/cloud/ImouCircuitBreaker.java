@@ -0,0 +1,121 @@
+package org.homio.addon.imou.internal.cloud;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Circuit breaker for imou data center or single device. Opens after repeated failures and rejects calls until open period ends, then
+ * lets through single probe request. Successful probe closes breaker, failed one opens it again with doubled period.
+ */
+@Log4j2
+@RequiredArgsConstructor
+public class ImouCircuitBreaker {
+
+  private static final int FAILURE_THRESHOLD = 5;
+  private static final Duration MIN_OPEN_DURATION = Duration.ofSeconds(30);
+  private static final Duration MAX_OPEN_DURATION = Duration.ofMinutes(10);
+
+  private final @NotNull String name;
+  @Getter
+  private State state = State.CLOSED;
+  private int failures;
+  private long openUntil;
+  private Duration openDuration = MIN_OPEN_DURATION;
+  private boolean probeInFlight;
+
+  /**
+   * @throws ImouCircuitOpenException if breaker open or probe request already in flight
+   */
+  public synchronized void acquire() {
+    switch (state) {
+      case OPEN -> {
+        if (System.currentTimeMillis() < openUntil) {
+          throw new ImouCircuitOpenException(getStatusMessage());
+        }
+        state = State.HALF_OPEN;
+        probeInFlight = true;
+      }
+      case HALF_OPEN -> {
+        if (probeInFlight) {
+          throw new ImouCircuitOpenException(getStatusMessage());
+        }
+        probeInFlight = true;
+      }
+    }
+  }
+
+  public synchronized void onSuccess() {
+    if (state != State.CLOSED) {
+      log.info("Imou circuit breaker {} closed", name);
+    }
+    state = State.CLOSED;
+    failures = 0;
+    probeInFlight = false;
+    openDuration = MIN_OPEN_DURATION;
+  }
+
+  public synchronized void onFailure() {
+    probeInFlight = false;
+    if (state == State.HALF_OPEN) {
+      openDuration = openDuration.multipliedBy(2);
+      if (openDuration.compareTo(MAX_OPEN_DURATION) > 0) {
+        openDuration = MAX_OPEN_DURATION;
+      }
+      open();
+    } else if (++failures >= FAILURE_THRESHOLD && state == State.CLOSED) {
+      open();
+    }
+  }
+
+  /**
+   * Call was acquired but not executed(quota exceeded, etc...). Release probe without changing state
+   */
+  public synchronized void onIgnored() {
+    probeInFlight = false;
+  }
+
+  /**
+   * @return true if breaker open and call would be rejected immediately
+   */
+  public synchronized boolean isRejecting() {
+    return (state == State.OPEN && System.currentTimeMillis() < openUntil) || (state == State.HALF_OPEN && probeInFlight);
+  }
+
+  /**
+   * @return null if breaker closed, otherwise human-readable state
+   */
+  public synchronized @Nullable String getStatusMessage() {
+    return switch (state) {
+      case CLOSED -> null;
+      case OPEN -> "Circuit open after %d failures. Retry at %s".formatted(failures,
+        LocalTime.ofInstant(Instant.ofEpochMilli(openUntil), ZoneId.systemDefault()).truncatedTo(ChronoUnit.SECONDS));
+      case HALF_OPEN -> "Circuit half-open. Probing";
+    };
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openUntil = System.currentTimeMillis() + openDuration.toMillis();
+    log.warn("Imou circuit breaker {} opened for {}s after {} failures", name, openDuration.toSeconds(), failures);
+  }
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  public static class ImouCircuitOpenException extends IllegalStateException {
+
+    public ImouCircuitOpenException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,279 @@
+package org.homio.addon.imou.internal.cloud;
+
+import lombok.extern.log4j.Log4j2;
+import org.homio.addon.imou.ImouProjectEntity.DataCenter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background latency probe of imou data centers. Each probe opens fresh connection(tcp + tls handshake) and sends unsigned
+ * accessToken request over it. Cloud rejects such request right away, so any http answer means data center is reachable and
+ * measures pure round trip. Rolling window of samples per data center gives p50/p99 and the fastest reachable data center.
+ * <p>
+ * Latency to data center doesn't depend on project, so all projects share one probe(see {@link #shared()})
+ */
+@Log4j2
+public class ImouDataCenterProbe {
+
+  private static final int WINDOW = 60;
+  // data center considered unreachable after that many failed probes in a row
+  private static final int FAILURE_THRESHOLD = 3;
+  private static final Duration TIMEOUT = Duration.ofSeconds(5);
+  private static final String PROBE_PATH = "accessToken";
+
+  private static final ImouDataCenterProbe SHARED = new ImouDataCenterProbe();
+
+  private final Map<DataCenter, URI> endpoints = new EnumMap<>(DataCenter.class);
+  private final Map<DataCenter, Samples> samples = new EnumMap<>(DataCenter.class);
+  private final AtomicLong lastProbeTime = new AtomicLong();
+
+  public ImouDataCenterProbe() {
+    this(getDefaultEndpoints());
+  }
+
+  /**
+   * @param endpoints - base api url per data center. Allows to probe stand-in endpoints
+   */
+  public ImouDataCenterProbe(@NotNull Map<DataCenter, String> endpoints) {
+    endpoints.forEach((dataCenter, url) -> {
+      this.endpoints.put(dataCenter, URI.create(url + PROBE_PATH));
+      this.samples.put(dataCenter, new Samples());
+    });
+  }
+
+  public static @NotNull ImouDataCenterProbe shared() {
+    return SHARED;
+  }
+
+  public void probeAll() {
+    endpoints.keySet().forEach(this::probe);
+  }
+
+  /**
+   * Probe all data centers unless other caller did it less than interval ago. Every project schedules probe, but only one of them
+   * actually sends probe requests
+   *
+   * @return true if this call probed data centers
+   */
+  public boolean probeAllIfDue(@NotNull Duration interval) {
+    long now = System.currentTimeMillis();
+    long last = lastProbeTime.get();
+    if (now - last < interval.toMillis() || !lastProbeTime.compareAndSet(last, now)) {
+      return false;
+    }
+    probeAll();
+    return true;
+  }
+
+  public void probe(@NotNull DataCenter dataCenter) {
+    URI uri = endpoints.get(dataCenter);
+    Samples dataCenterSamples = samples.get(dataCenter);
+    long start = System.nanoTime();
+    try (Socket socket = connect(uri)) {
+      long handshake = System.nanoTime() - start;
+      int status = call(socket, uri);
+      long call = System.nanoTime() - start - handshake;
+      log.debug("Imou {} probe: handshake {}ms, call {}ms, status {}", dataCenter, TimeUnit.NANOSECONDS.toMillis(handshake),
+        TimeUnit.NANOSECONDS.toMillis(call), status);
+      dataCenterSamples.add(handshake, call);
+    } catch (Exception ex) {
+      log.debug("Imou {} probe failed: {}", dataCenter, ex.getMessage());
+      dataCenterSamples.fail();
+    }
+  }
+
+  public boolean isUnreachable(@NotNull DataCenter dataCenter) {
+    Samples dataCenterSamples = samples.get(dataCenter);
+    return dataCenterSamples != null && dataCenterSamples.isUnreachable();
+  }
+
+  /**
+   * @return reachable data center with lowest median call latency or null if nothing probed yet
+   */
+  public @Nullable DataCenter getFastest() {
+    return getFastest(Set.of());
+  }
+
+  /**
+   * @param excluded - data centers that must not be returned, i.e. ones where project account doesn't exist
+   */
+  public @Nullable DataCenter getFastest(@NotNull Set<DataCenter> excluded) {
+    DataCenter fastest = null;
+    long fastestLatency = Long.MAX_VALUE;
+    for (Map.Entry<DataCenter, Samples> entry : samples.entrySet()) {
+      Samples dataCenterSamples = entry.getValue();
+      if (!excluded.contains(entry.getKey()) && !dataCenterSamples.isUnreachable()) {
+        long latency = dataCenterSamples.getCallPercentile(0.5);
+        if (latency >= 0 && latency < fastestLatency) {
+          fastest = entry.getKey();
+          fastestLatency = latency;
+        }
+      }
+    }
+    return fastest;
+  }
+
+  /**
+   * Data center to send requests to. Configured one is used whenever it's reachable, so fallback is always temporary
+   *
+   * @param configured - data center stored in project
+   * @param fallback   - data center currently used instead of configured one or null
+   * @param excluded   - data centers known to reject project account
+   */
+  public @NotNull DataCenter getFailoverTarget(@NotNull DataCenter configured, @Nullable DataCenter fallback,
+    @NotNull Set<DataCenter> excluded) {
+    if (!isUnreachable(configured)) {
+      return configured;
+    }
+    // stay on working fallback even if other data center became faster, every switch costs new login
+    if (fallback != null && !isUnreachable(fallback) && !excluded.contains(fallback)) {
+      return fallback;
+    }
+    DataCenter fastest = getFastest(excluded);
+    return fastest == null ? configured : fastest;
+  }
+
+  public @NotNull String getStats(@NotNull DataCenter current) {
+    StringJoiner stats = new StringJoiner(". ");
+    for (Map.Entry<DataCenter, Samples> entry : samples.entrySet()) {
+      String name = entry.getKey().name() + (entry.getKey() == current ? "*" : "");
+      stats.add(name + ": " + entry.getValue().getStats());
+    }
+    DataCenter fastest = getFastest();
+    if (fastest != null && fastest != current) {
+      stats.add("Suggested: " + fastest.name());
+    }
+    return stats.toString();
+  }
+
+  private static Map<DataCenter, String> getDefaultEndpoints() {
+    Map<DataCenter, String> endpoints = new EnumMap<>(DataCenter.class);
+    for (DataCenter dataCenter : DataCenter.values()) {
+      endpoints.put(dataCenter, dataCenter.getUrl());
+    }
+    return endpoints;
+  }
+
+  private static Socket connect(URI uri) throws IOException {
+    boolean secure = "https".equals(uri.getScheme());
+    int port = uri.getPort() == -1 ? (secure ? 443 : 80) : uri.getPort();
+    Socket socket = (secure ? SSLSocketFactory.getDefault() : SocketFactory.getDefault()).createSocket();
+    try {
+      socket.connect(new InetSocketAddress(uri.getHost(), port), (int) TIMEOUT.toMillis());
+      socket.setSoTimeout((int) TIMEOUT.toMillis());
+      if (socket instanceof SSLSocket sslSocket) {
+        SSLParameters parameters = sslSocket.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        parameters.setServerNames(List.of(new SNIHostName(uri.getHost())));
+        sslSocket.setSSLParameters(parameters);
+        sslSocket.startHandshake();
+      }
+      return socket;
+    } catch (IOException ex) {
+      socket.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * @return http status of unsigned request
+   */
+  private static int call(Socket socket, URI uri) throws IOException {
+    String request = """
+      POST %s HTTP/1.1\r
+      Host: %s\r
+      Content-Type: application/json\r
+      Content-Length: 2\r
+      Connection: close\r
+      \r
+      {}""".formatted(uri.getRawPath(), uri.getHost());
+    OutputStream output = socket.getOutputStream();
+    output.write(request.getBytes(StandardCharsets.US_ASCII));
+    output.flush();
+    String statusLine = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+    if (statusLine == null || !statusLine.startsWith("HTTP/")) {
+      throw new IOException("Unexpected response: " + statusLine);
+    }
+    return Integer.parseInt(statusLine.split(" ")[1]);
+  }
+
+  /**
+   * Rolling window of handshake and call latencies in nanoseconds
+   */
+  private static class Samples {
+
+    private final long[] handshakes = new long[WINDOW];
+    private final long[] calls = new long[WINDOW];
+    private int count;
+    private int position;
+    private int failures;
+
+    private synchronized void add(long handshake, long call) {
+      handshakes[position] = handshake;
+      calls[position] = call;
+      position = (position + 1) % WINDOW;
+      count = Math.min(count + 1, WINDOW);
+      failures = 0;
+    }
+
+    private synchronized void fail() {
+      failures++;
+    }
+
+    private synchronized boolean isUnreachable() {
+      return failures >= FAILURE_THRESHOLD;
+    }
+
+    private synchronized long getCallPercentile(double percentile) {
+      return percentile(calls, percentile);
+    }
+
+    private synchronized String getStats() {
+      if (isUnreachable()) {
+        return "unreachable(%d failed probes)".formatted(failures);
+      }
+      if (count == 0) {
+        return "n/a";
+      }
+      return "handshake p50/p99 %d/%dms, call p50/p99 %d/%dms".formatted(
+        toMillis(percentile(handshakes, 0.5)), toMillis(percentile(handshakes, 0.99)),
+        toMillis(percentile(calls, 0.5)), toMillis(percentile(calls, 0.99)));
+    }
+
+    private long percentile(long[] values, double percentile) {
+      if (count == 0) {
+        return -1;
+      }
+      long[] sorted = Arrays.copyOf(values, count);
+      Arrays.sort(sorted);
+      return sorted[Math.max(0, (int) Math.ceil(percentile * count) - 1)];
+    }
+
+    private static long toMillis(long nanos) {
+      return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+  }
+}
@@ -0,0 +1,283 @@
+package org.homio.addon.imou.internal.cloud;
+
+import lombok.Getter;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+import org.homio.addon.imou.ImouProjectEntity.DataCenter;
+import org.homio.addon.imou.internal.cloud.ImouCircuitBreaker.ImouCircuitOpenException;
+import org.homio.api.exception.ServerException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Long-lived http client per imou data center. Reuses connections between requests, negotiates HTTP/2 when server supports it and
+ * accepts gzip responses. Client and it's connection pool are shared by all projects of data center, pool size is the biggest limit
+ * configured by those projects.
+ * <p>
+ * JDK client doesn't report whether request went over new or reused connection, so there are no reuse/handshake counters here.
+ * Handshake cost of data center is measured separately by {@link ImouDataCenterProbe}.
+ */
+@Log4j2
+public final class ImouHttpClient {
+
+  public static final int DEFAULT_MAX_CONNECTIONS = 8;
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+  private static final int MAX_ERROR_BODY_SIZE = 4096;
+  private static final Map<DataCenter, ImouHttpClient> CLIENTS = new ConcurrentHashMap<>();
+  private static final ExecutorService BODY_EXECUTOR =
+    Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("imou-http-", 0).factory());
+
+  // jdk closes connections idle longer than that. Setting is JVM-wide and belongs to Homio, so it's only read here: start Homio with
+  // -Djdk.httpclient.keepalive.timeout(.h2) to keep connections between poll cycles longer than poll interval
+  private static final long IDLE_TIMEOUT = Long.getLong("jdk.httpclient.keepalive.timeout", 30);
+  private static final long H2_IDLE_TIMEOUT = Long.getLong("jdk.httpclient.keepalive.timeout.h2", IDLE_TIMEOUT);
+
+  private final @NotNull DataCenter dataCenter;
+  private final @NotNull String baseUrl;
+  private final @NotNull HttpClient httpClient;
+  @Getter
+  private final @NotNull ImouCircuitBreaker circuitBreaker;
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder http2 = new LongAdder();
+  private final LongAdder gzip = new LongAdder();
+  private final ConnectionPermits connections = new ConnectionPermits(DEFAULT_MAX_CONNECTIONS);
+  private final Map<String, Integer> projectLimits = new ConcurrentHashMap<>();
+  @Getter
+  private volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+  private ImouHttpClient(@NotNull DataCenter dataCenter) {
+    this(dataCenter, dataCenter.getUrl());
+  }
+
+  /**
+   * @param baseUrl - api url of data center. Allows to send requests to stand-in server
+   */
+  ImouHttpClient(@NotNull DataCenter dataCenter, @NotNull String baseUrl) {
+    this.dataCenter = dataCenter;
+    this.baseUrl = baseUrl;
+    this.circuitBreaker = new ImouCircuitBreaker(dataCenter.name());
+    this.httpClient = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_2)
+      .connectTimeout(CONNECT_TIMEOUT)
+      .followRedirects(HttpClient.Redirect.NORMAL)
+      .build();
+  }
+
+  /**
+   * @param projectId      - project that sends request
+   * @param maxConnections - connection limit requested by project
+   */
+  public static @NotNull ImouHttpClient get(@NotNull DataCenter dataCenter, @NotNull String projectId, int maxConnections) {
+    ImouHttpClient client = get(dataCenter);
+    client.setMaxConnections(projectId, maxConnections);
+    return client;
+  }
+
+  public static @NotNull ImouHttpClient get(@NotNull DataCenter dataCenter) {
+    return CLIENTS.computeIfAbsent(dataCenter, ImouHttpClient::new);
+  }
+
+  /**
+   * Drop connection limit of project that no longer uses data center
+   */
+  public static void release(@NotNull DataCenter dataCenter, @NotNull String projectId) {
+    ImouHttpClient client = CLIENTS.get(dataCenter);
+    if (client != null && client.projectLimits.remove(projectId) != null) {
+      client.resize();
+    }
+  }
+
+  static void shutdown() {
+    BODY_EXECUTOR.shutdownNow();
+    CLIENTS.values().forEach(ImouHttpClient::close);
+    CLIENTS.clear();
+  }
+
+  void close() {
+    httpClient.shutdownNow();
+  }
+
+  /**
+   * Limit number of simultaneous requests(and so opened connections) to data center. Pool is resized in place, so requests in flight
+   * return permits to the same pool
+   */
+  void setMaxConnections(@NotNull String projectId, int maxConnections) {
+    if (maxConnections > 0 && !Integer.valueOf(maxConnections).equals(projectLimits.put(projectId, maxConnections))) {
+      resize();
+    }
+  }
+
+  private synchronized void resize() {
+    int limit = projectLimits.values().stream().mapToInt(Integer::intValue).max().orElse(DEFAULT_MAX_CONNECTIONS);
+    if (limit != maxConnections) {
+      log.info("Imou {} connection pool size changed {} -> {}", dataCenter, maxConnections, limit);
+      connections.resize(limit - maxConnections);
+      maxConnections = limit;
+    }
+  }
+
+  /**
+   * Send request without blocking on response. May wait for free connection if pool exhausted, so should be called from virtual
+   * thread. Future completes as soon as response headers arrive, body is returned as (already un-gzipped) stream and connection
+   * permit is held until stream closed. Cancelling returned future cancels http exchange
+   */
+  public @NotNull CompletableFuture<InputStream> postAsync(@NotNull String path, @NotNull String json) {
+    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+      .timeout(REQUEST_TIMEOUT)
+      .header("Content-Type", "application/json")
+      .header("Accept-Encoding", "gzip")
+      .POST(BodyPublishers.ofString(json))
+      .build();
+    try {
+      circuitBreaker.acquire();
+    } catch (ImouCircuitOpenException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+    Semaphore semaphore = connections;
+    semaphore.acquireUninterruptibly();
+    CompletableFuture<HttpResponse<InputStream>> exchange = httpClient.sendAsync(request, BodyHandlers.ofInputStream());
+    CompletableFuture<PooledBody> pooled = exchange.handle((response, error) -> {
+      if (error != null) {
+        semaphore.release();
+        // caller gave up(poll deadline, interrupt). Says nothing about data center, that is shared by all projects
+        if (ImouAPI.unwrap(error) instanceof CancellationException) {
+          circuitBreaker.onIgnored();
+        } else {
+          circuitBreaker.onFailure();
+        }
+        throw error instanceof CompletionException ce ? ce : new CompletionException(error);
+      }
+      collectStats(response);
+      if (response.statusCode() >= 500) {
+        circuitBreaker.onFailure();
+      } else {
+        circuitBreaker.onSuccess();
+      }
+      return new PooledBody(response, semaphore);
+    });
+    // reading gzip header or error body blocks, so not do it on http client selector thread
+    CompletableFuture<InputStream> result = pooled.thenApplyAsync(this::openBody, BODY_EXECUTOR);
+    result.whenComplete((body, error) -> {
+      if (result.isCancelled()) {
+        exchange.cancel(true);
+        // cancelled after headers arrived, nobody going to read body
+        pooled.thenAccept(ImouHttpClient::closeQuietly);
+      }
+    });
+    return result;
+  }
+
+  public @NotNull String getStats() {
+    return "Requests: %d. HTTP/2: %d. Gzip: %d. Idle timeout h1/h2: %d/%ds. Pool: %d/%d".formatted(
+      requests.sum(), http2.sum(), gzip.sum(), IDLE_TIMEOUT, H2_IDLE_TIMEOUT,
+      maxConnections - connections.availablePermits(), maxConnections);
+  }
+
+  private void collectStats(HttpResponse<?> response) {
+    requests.increment();
+    if (response.version() == HttpClient.Version.HTTP_2) {
+      http2.increment();
+    }
+  }
+
+  @SneakyThrows
+  private InputStream openBody(PooledBody body) {
+    HttpResponse<InputStream> response = body.response;
+    InputStream stream = body;
+    try {
+      if (response.headers().firstValue("Content-Encoding").filter("gzip"::equalsIgnoreCase).isPresent()) {
+        gzip.increment();
+        stream = new GZIPInputStream(body);
+      }
+    } catch (IOException ex) {
+      closeQuietly(body);
+      throw ex;
+    }
+    if (response.statusCode() == 200) {
+      return stream;
+    }
+    throw new ServerException("Request failed " + readError(stream));
+  }
+
+  @SneakyThrows
+  private static String readError(InputStream body) {
+    try (body) {
+      return new String(body.readNBytes(MAX_ERROR_BODY_SIZE), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static void closeQuietly(InputStream stream) {
+    try {
+      stream.close();
+    } catch (IOException ignore) {
+    }
+  }
+
+  private static class ConnectionPermits extends Semaphore {
+
+    private ConnectionPermits(int permits) {
+      super(permits, true);
+    }
+
+    /**
+     * Shrinking takes effect as busy permits are returned
+     */
+    private void resize(int delta) {
+      if (delta > 0) {
+        release(delta);
+      } else if (delta < 0) {
+        reducePermits(-delta);
+      }
+    }
+  }
+
+  /**
+   * Response body that returns connection permit to pool when closed
+   */
+  private static class PooledBody extends FilterInputStream {
+
+    private final AtomicBoolean released = new AtomicBoolean();
+    private final HttpResponse<InputStream> response;
+    private final Semaphore semaphore;
+
+    private PooledBody(HttpResponse<InputStream> response, Semaphore semaphore) {
+      super(response.body());
+      this.response = response;
+      this.semaphore = semaphore;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (released.compareAndSet(false, true)) {
+          semaphore.release();
+        }
+      }
+    }
+  }
+}
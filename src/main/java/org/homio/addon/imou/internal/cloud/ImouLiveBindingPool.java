@@ -0,0 +1,253 @@
+package org.homio.addon.imou.internal.cloud;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.homio.addon.imou.internal.cloud.ImouAPI.CameraProfile;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceLiveBindDTO;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceLiveStreamsDTO;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pool of live bindings per device and camera profile. Binding that already exists on cloud(liveToken from stream info) is adopted
+ * instead of creating new one. Viewers hold {@link Lease}, binding without viewers is unbound after grace period. Adopted bindings
+ * may be used by other clients of same account, so they are only released from pool and never unbound. Bindings in use are
+ * checked periodically and re-bound if cloud paused them or traffic is exhausted.
+ */
+@Log4j2
+@RequiredArgsConstructor
+public class ImouLiveBindingPool {
+
+  private static final Duration IDLE_GRACE = Duration.ofMinutes(2);
+  private static final Duration STATUS_CHECK_INTERVAL = Duration.ofMinutes(1);
+  private static final Duration REAP_INTERVAL = Duration.ofSeconds(30);
+  private static final ScheduledExecutorService REAPER =
+    Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("imou-live-reaper").daemon().factory());
+
+  private final @NotNull ImouAPI api;
+  private final Map<String, Binding> bindings = new HashMap<>();
+  private @Nullable ScheduledFuture<?> reaper;
+
+  /**
+   * Open live session. Completes immediately if binding already exists. Lease must be closed when viewer gone
+   */
+  public synchronized @NotNull CompletableFuture<Lease> acquire(@NotNull String deviceId, @NotNull CameraProfile profile) {
+    Binding binding = bindings.computeIfAbsent(deviceId + ":" + profile, key -> new Binding(deviceId, profile));
+    binding.viewers++;
+    if (binding.session == null || binding.session.isCompletedExceptionally()) {
+      binding.session = open(binding);
+    }
+    if (reaper == null) {
+      reaper = REAPER.scheduleWithFixedDelay(this::reap, REAP_INTERVAL.toMillis(), REAP_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+    return binding.session.handle((session, ex) -> {
+      if (ex != null) {
+        release(binding);
+        throw new IllegalStateException("Unable to bind imou live " + deviceId + ": " + ex.getMessage(), ex);
+      }
+      return new Lease(binding);
+    });
+  }
+
+  /**
+   * Unbind all device sessions regardless of viewers
+   */
+  public synchronized void remove(@NotNull String deviceId) {
+    bindings.values().removeIf(binding -> {
+      if (binding.deviceId.equals(deviceId)) {
+        unbind(binding);
+        return true;
+      }
+      return false;
+    });
+  }
+
+  static void shutdown() {
+    REAPER.shutdownNow();
+  }
+
+  public synchronized @NotNull String getStats() {
+    int viewers = bindings.values().stream().mapToInt(binding -> binding.viewers).sum();
+    return "Bindings: %d. Viewers: %d".formatted(bindings.size(), viewers);
+  }
+
+  private synchronized void release(Binding binding) {
+    if (--binding.viewers == 0) {
+      binding.idleSince = System.currentTimeMillis();
+    }
+  }
+
+  private CompletableFuture<Session> open(Binding binding) {
+    String streamId = String.valueOf(binding.profile.ordinal());
+    return api.getLiveStreamInfoAsync(binding.deviceId)
+      // cloud replies with error if device has no live yet
+      .exceptionally(ex -> null)
+      .thenCompose(info -> {
+        Session existed = findSession(info, binding.profile);
+        if (existed != null) {
+          log.info("Reuse imou live binding {}:{}", binding.deviceId, streamId);
+          return CompletableFuture.completedFuture(existed);
+        }
+        log.info("Bind imou live {}:{}", binding.deviceId, streamId);
+        return api.createBindDeviceLiveAsync(binding.deviceId, binding.profile).thenApply(dto -> toSession(dto, binding.profile));
+      })
+      .whenComplete((session, ex) -> {
+        binding.current = session;
+        binding.lastStatusCheck = System.currentTimeMillis();
+      });
+  }
+
+  private synchronized void reap() {
+    long now = System.currentTimeMillis();
+    List<Binding> toCheck = new ArrayList<>();
+    bindings.values().removeIf(binding -> {
+      if (binding.viewers == 0 && now - binding.idleSince > IDLE_GRACE.toMillis()) {
+        log.info("Unbind idle imou live {}:{}", binding.deviceId, binding.profile);
+        unbind(binding);
+        return true;
+      }
+      if (binding.viewers > 0 && binding.current != null && now - binding.lastStatusCheck > STATUS_CHECK_INTERVAL.toMillis()) {
+        binding.lastStatusCheck = now;
+        toCheck.add(binding);
+      }
+      return false;
+    });
+    for (Binding binding : toCheck) {
+      Session session = binding.current;
+      api.queryLiveStatusAsync(session.liveToken).whenComplete((status, ex) -> {
+        if (ex != null) {
+          log.debug("Unable to query imou live status {}: {}", binding.deviceId, ex.getMessage());
+        } else if (!status.isPlayable()) {
+          rebind(binding, session, status.getLiveStatus());
+        }
+      });
+    }
+    if (bindings.isEmpty() && reaper != null) {
+      reaper.cancel(false);
+      reaper = null;
+    }
+  }
+
+  private synchronized void rebind(Binding binding, Session stale, int liveStatus) {
+    if (bindings.get(binding.deviceId + ":" + binding.profile) != binding || binding.current != stale) {
+      return;
+    }
+    log.warn("Imou live {}:{} not playable(status {}). Re-bind", binding.deviceId, binding.profile, liveStatus);
+    binding.current = null;
+    CompletableFuture<Void> unbind = stale.owned
+      ? api.unbindLiveAsync(binding.deviceId, stale.liveToken).exceptionally(ex -> null)
+      : CompletableFuture.completedFuture(null);
+    binding.session = unbind
+      .thenCompose(ignore -> api.createBindDeviceLiveAsync(binding.deviceId, binding.profile))
+      .thenApply(dto -> toSession(dto, binding.profile))
+      .whenComplete((session, ex) -> {
+        binding.current = session;
+        binding.lastStatusCheck = System.currentTimeMillis();
+      });
+  }
+
+  private void unbind(Binding binding) {
+    CompletableFuture<Session> session = binding.session;
+    if (session == null) {
+      return;
+    }
+    session.thenCompose(value -> value.owned
+      ? api.unbindLiveAsync(binding.deviceId, value.liveToken)
+      : CompletableFuture.<Void>completedFuture(null)).whenComplete((ignore, ex) -> {
+      if (ex != null) {
+        log.debug("Unable to unbind imou live {}: {}", binding.deviceId, ex.getMessage());
+      }
+    });
+  }
+
+  private static @Nullable Session findSession(@Nullable ImouDeviceLiveStreamsDTO info, CameraProfile profile) {
+    if (info == null || info.getStreams() == null) {
+      return null;
+    }
+    return info.getStreams().stream()
+      .filter(stream -> stream.getStreamId() == profile.ordinal())
+      .filter(stream -> StringUtils.isNotEmpty(stream.getLiveToken()) && StringUtils.isNotEmpty(stream.getHls()))
+      .findFirst()
+      .map(stream -> new Session(stream.getLiveToken(), stream.getHls(), false))
+      .orElse(null);
+  }
+
+  private static Session toSession(ImouDeviceLiveBindDTO dto, CameraProfile profile) {
+    String hls = dto.getStreams() == null ? null : dto.getStreams().stream()
+      .filter(stream -> stream.getStreamId() == profile.ordinal())
+      .findFirst()
+      .or(() -> dto.getStreams().stream().findFirst())
+      .map(ImouDeviceLiveBindDTO.Stream::getHls)
+      .orElse(null);
+    if (StringUtils.isEmpty(dto.getLiveToken()) || StringUtils.isEmpty(hls)) {
+      throw new IllegalStateException("Imou live binding has no stream");
+    }
+    return new Session(dto.getLiveToken(), hls, true);
+  }
+
+  /**
+   * Viewer handle of live binding. Always returns actual binding urls, so re-bind is transparent for long-lived viewers
+   */
+  public class Lease implements AutoCloseable {
+
+    private final Binding binding;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    @Getter
+    private final CameraProfile profile;
+
+    private Lease(Binding binding) {
+      this.binding = binding;
+      this.profile = binding.profile;
+    }
+
+    public @Nullable String getHls() {
+      Session session = binding.current;
+      return session == null ? null : session.hls;
+    }
+
+    public @Nullable String getLiveToken() {
+      Session session = binding.current;
+      return session == null ? null : session.liveToken;
+    }
+
+    @Override
+    public void close() {
+      if (closed.compareAndSet(false, true)) {
+        release(binding);
+      }
+    }
+  }
+
+  @RequiredArgsConstructor
+  private static class Binding {
+
+    private final String deviceId;
+    private final CameraProfile profile;
+    private @Nullable CompletableFuture<Session> session;
+    private volatile @Nullable Session current;
+    private int viewers;
+    private long idleSince;
+    private long lastStatusCheck;
+  }
+
+  /**
+   * @param owned - binding created by pool. False for binding adopted from cloud
+   */
+  private record Session(String liveToken, String hls, boolean owned) {
+
+  }
+}
@@ -0,0 +1,113 @@
+package org.homio.addon.imou.internal.cloud;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceLiveStreamsDTO;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceLiveStreamsDTO.Stream;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Live stream info cache per device and channel. Entry lives while it's hls urls are valid, after 3/4 of lifetime entry is still
+ * served but refreshed in background, so callers block only when there is no valid entry at all.
+ */
+@Log4j2
+@RequiredArgsConstructor
+public class ImouLiveStreamCache {
+
+  // used when hls url carries no expiration time
+  private static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+  private static final Set<String> EXPIRE_PARAMS = Set.of("expire", "expires", "exp", "expiretime", "endtime");
+
+  private final @NotNull ImouAPI api;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final Map<String, CompletableFuture<ImouDeviceLiveStreamsDTO>> refreshes = new ConcurrentHashMap<>();
+
+  public @NotNull ImouDeviceLiveStreamsDTO get(@NotNull String deviceId, @NotNull String channelId) {
+    String key = deviceId + ":" + channelId;
+    Entry entry = entries.get(key);
+    long now = System.currentTimeMillis();
+    if (entry != null && now < entry.expiresAt) {
+      if (now >= entry.refreshAt) {
+        refresh(key, deviceId, channelId);
+      }
+      return entry.value;
+    }
+    return ImouAPI.await(refresh(key, deviceId, channelId));
+  }
+
+  /**
+   * Drop cached info of all device channels. Should be called when live binding created or removed
+   */
+  public void invalidate(@NotNull String deviceId) {
+    entries.keySet().removeIf(key -> key.startsWith(deviceId + ":"));
+  }
+
+  private CompletableFuture<ImouDeviceLiveStreamsDTO> refresh(String key, String deviceId, String channelId) {
+    CompletableFuture<ImouDeviceLiveStreamsDTO> refresh = refreshes.computeIfAbsent(key, k ->
+      api.getLiveStreamInfoAsync(deviceId, channelId).thenApply(value -> {
+        long now = System.currentTimeMillis();
+        long expiresAt = getExpiresAt(value, now);
+        entries.put(key, new Entry(value, now + (expiresAt - now) * 3 / 4, expiresAt));
+        return value;
+      }));
+    refresh.whenComplete((value, ex) -> {
+      refreshes.remove(key, refresh);
+      if (ex != null) {
+        log.debug("Unable to refresh imou live stream info {}: {}", key, ex.getMessage());
+      }
+    });
+    return refresh;
+  }
+
+  /**
+   * Earliest expiration time of stream urls. Url expiration is read from signed url query params if present
+   */
+  private static long getExpiresAt(ImouDeviceLiveStreamsDTO value, long now) {
+    long expiresAt = now + DEFAULT_TTL.toMillis();
+    if (value.getStreams() == null) {
+      return expiresAt;
+    }
+    for (Stream stream : value.getStreams()) {
+      long urlExpiresAt = getUrlExpiresAt(stream.getHls());
+      if (urlExpiresAt > now && urlExpiresAt < expiresAt) {
+        expiresAt = urlExpiresAt;
+      }
+    }
+    return expiresAt;
+  }
+
+  private static long getUrlExpiresAt(String url) {
+    if (StringUtils.isEmpty(url)) {
+      return 0;
+    }
+    try {
+      String query = URI.create(url).getRawQuery();
+      if (query == null) {
+        return 0;
+      }
+      for (String param : query.split("&")) {
+        String name = StringUtils.substringBefore(param, "=").toLowerCase();
+        String value = StringUtils.substringAfter(param, "=");
+        if (EXPIRE_PARAMS.contains(name) && StringUtils.isNumeric(value)) {
+          long time = Long.parseLong(value);
+          // seconds or milliseconds
+          return time < 100_000_000_000L ? time * 1000 : time;
+        }
+      }
+    } catch (Exception ignore) {
+    }
+    return 0;
+  }
+
+  private record Entry(ImouDeviceLiveStreamsDTO value, long refreshAt, long expiresAt) {
+
+  }
+}
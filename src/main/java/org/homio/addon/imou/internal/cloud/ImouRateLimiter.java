@@ -0,0 +1,142 @@
+package org.homio.addon.imou.internal.cloud;
+
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Token bucket limiter for imou OpenApi calls with daily quota budget. Interactive calls(user actions) are served first, background
+ * readers may not drain bucket or daily quota below reserved part, discovery has lowest priority.
+ */
+public class ImouRateLimiter {
+
+  public static final int DEFAULT_RATE = 10;
+  public static final int DEFAULT_DAILY_QUOTA = 50000;
+  private static final long MAX_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private final AtomicInteger waitingInteractive = new AtomicInteger();
+  private double ratePerSecond;
+  private int dailyQuota;
+  private double tokens;
+  private long lastRefillTime = System.nanoTime();
+  private LocalDate day = LocalDate.now();
+  private int usedToday;
+
+  public ImouRateLimiter(double ratePerSecond, int dailyQuota) {
+    configure(ratePerSecond, dailyQuota);
+    this.tokens = getCapacity();
+  }
+
+  public synchronized void configure(double ratePerSecond, int dailyQuota) {
+    this.ratePerSecond = Math.max(0.1, ratePerSecond);
+    this.dailyQuota = Math.max(1, dailyQuota);
+  }
+
+  /**
+   * Block until request is allowed
+   *
+   * @throws ImouQuotaExceededException if daily budget for priority exhausted or no permit within 30s
+   */
+  @SneakyThrows
+  public void acquire(@NotNull Priority priority) {
+    long deadline = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+    boolean interactive = priority == Priority.INTERACTIVE;
+    if (interactive) {
+      waitingInteractive.incrementAndGet();
+    }
+    try {
+      while (true) {
+        long waitMillis = tryAcquire(priority);
+        if (waitMillis == 0) {
+          return;
+        }
+        if (System.currentTimeMillis() + waitMillis > deadline) {
+          throw new ImouQuotaExceededException("Imou request rate limit exceeded for " + priority);
+        }
+        Thread.sleep(waitMillis);
+      }
+    } finally {
+      if (interactive) {
+        waitingInteractive.decrementAndGet();
+      }
+    }
+  }
+
+  public synchronized int getRemainingDailyQuota() {
+    resetDayIfNeed();
+    return Math.max(0, dailyQuota - usedToday);
+  }
+
+  public synchronized @NotNull String getStats() {
+    resetDayIfNeed();
+    refill();
+    return "Remaining today: %d/%d. Bucket: %.1f/%.1f".formatted(
+      Math.max(0, dailyQuota - usedToday), dailyQuota, tokens, getCapacity());
+  }
+
+  /**
+   * @return 0 if permit acquired, otherwise milliseconds to wait before next attempt
+   */
+  private synchronized long tryAcquire(Priority priority) {
+    resetDayIfNeed();
+    if (dailyQuota - usedToday <= dailyQuota * priority.dailyReserve) {
+      throw new ImouQuotaExceededException("Imou daily quota exhausted for %s requests. Used: %d/%d".formatted(
+        priority, usedToday, dailyQuota));
+    }
+    refill();
+    double threshold = 1 + getCapacity() * priority.bucketReserve;
+    boolean yieldToInteractive = priority != Priority.INTERACTIVE && waitingInteractive.get() > 0;
+    if (!yieldToInteractive && tokens >= threshold) {
+      tokens -= 1;
+      usedToday++;
+      return 0;
+    }
+    long waitMillis = (long) Math.ceil((threshold - tokens) * 1000 / ratePerSecond);
+    return Math.max(10, Math.min(waitMillis, 1000));
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    tokens = Math.min(getCapacity(), tokens + (now - lastRefillTime) * ratePerSecond / TimeUnit.SECONDS.toNanos(1));
+    lastRefillTime = now;
+  }
+
+  // bucket holds one second of requests but at least 2 so reserve for interactive calls always exists
+  private double getCapacity() {
+    return Math.max(2, ratePerSecond);
+  }
+
+  private void resetDayIfNeed() {
+    LocalDate today = LocalDate.now();
+    if (!today.equals(day)) {
+      day = today;
+      usedToday = 0;
+    }
+  }
+
+  @RequiredArgsConstructor
+  public enum Priority {
+    // user actions: switch toggle, restart, snapshot, stream
+    INTERACTIVE(0, 0),
+    // periodic endpoint readers
+    BACKGROUND(0.2, 0.05),
+    // device discovery
+    DISCOVERY(0.5, 0.1);
+
+    // part of bucket capacity that must stay for higher priority requests
+    private final double bucketReserve;
+    // part of daily quota that must stay for higher priority requests
+    private final double dailyReserve;
+  }
+
+  public static class ImouQuotaExceededException extends IllegalStateException {
+
+    public ImouQuotaExceededException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package org.homio.addon.imou.internal.cloud;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.homio.addon.imou.internal.cloud.dto.ImouTokenDTO;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Keeps imou access token with it's expiration time. Token read is lock-free, refresh happens in background before token expires and
+ * only one login request may be in flight at any time - all other callers wait for it's result. Each {@link #invalidate()} starts new
+ * generation, token obtained by login that started before it is never used.
+ */
+@Log4j2
+@RequiredArgsConstructor
+public class ImouTokenManager {
+
+  /**
+   * Result codes returned by cloud when access token expired or not exists
+   */
+  public static final Set<String> TOKEN_INVALID_CODES = Set.of("TK1002", "TK1003");
+  private static final Duration REFRESH_BEFORE_EXPIRE = Duration.ofMinutes(30);
+  // imou token lives ~3 days. Used if response has no expireTime
+  private static final Duration DEFAULT_TOKEN_TTL = Duration.ofHours(24);
+  // login blocks until cloud answers, keep it off common pool
+  private static final ExecutorService REFRESH_EXECUTOR =
+    Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("imou-token-refresh-", 0).factory());
+
+  private final @NotNull Supplier<ImouTokenDTO> loginHandler;
+  private final AtomicReference<CompletableFuture<AccessToken>> inFlight = new AtomicReference<>();
+  private final AtomicLong generation = new AtomicLong();
+  private volatile @Nullable AccessToken token;
+
+  static void shutdown() {
+    REFRESH_EXECUTOR.shutdownNow();
+  }
+
+  public boolean hasToken() {
+    AccessToken current = currentToken();
+    return current != null && !current.isExpired(System.currentTimeMillis());
+  }
+
+  public @NotNull String getToken() {
+    AccessToken current = currentToken();
+    long now = System.currentTimeMillis();
+    if (current != null && !current.isExpired(now)) {
+      if (now >= current.refreshAt && inFlight.get() == null) {
+        CompletableFuture.runAsync(this::refresh, REFRESH_EXECUTOR).exceptionally(ex -> {
+          log.warn("Unable to refresh imou access token in background: {}", ex.getMessage());
+          return null;
+        });
+      }
+      return current.value;
+    }
+    return await(refresh()).value;
+  }
+
+  /**
+   * Called when cloud rejected token. Only first caller performs re-login, others receive it's result
+   *
+   * @param rejectedToken - token that was sent in failed request
+   * @return new token
+   */
+  public @NotNull String renew(@NotNull String rejectedToken) {
+    while (true) {
+      CompletableFuture<AccessToken> running = inFlight.get();
+      if (running != null) {
+        return await(running).value;
+      }
+      AccessToken current = currentToken();
+      if (current != null && !current.value.equals(rejectedToken)) {
+        return current.value; // someone already re-logged in
+      }
+      CompletableFuture<AccessToken> future = new CompletableFuture<>();
+      if (inFlight.compareAndSet(null, future)) {
+        // other login may have finished between token read and taking in-flight slot
+        AccessToken latest = currentToken();
+        if (latest != null && !latest.value.equals(rejectedToken)) {
+          inFlight.compareAndSet(future, null);
+          future.complete(latest);
+          return latest.value;
+        }
+        log.info("Imou access token has been rejected by cloud. Re-login");
+        token = null;
+        return await(login(future)).value;
+      }
+    }
+  }
+
+  /**
+   * Drop token. Login already in flight is detached, so next caller logs in again instead of waiting for stale result
+   */
+  public void invalidate() {
+    generation.incrementAndGet();
+    token = null;
+    inFlight.set(null);
+  }
+
+  public @Nullable Long getExpiresAt() {
+    AccessToken current = currentToken();
+    return current == null ? null : current.expiresAt;
+  }
+
+  private CompletableFuture<AccessToken> refresh() {
+    CompletableFuture<AccessToken> future = new CompletableFuture<>();
+    CompletableFuture<AccessToken> existed = inFlight.compareAndExchange(null, future);
+    if (existed != null) {
+      return existed;
+    }
+    return login(future);
+  }
+
+  /**
+   * Perform login on calling thread. Caller must own in-flight slot with passed future
+   */
+  private CompletableFuture<AccessToken> login(CompletableFuture<AccessToken> future) {
+    long loginGeneration = generation.get();
+    try {
+      ImouTokenDTO dto = loginHandler.get();
+      long now = System.currentTimeMillis();
+      long ttl = dto.getExpireTime() > 0 ? Duration.ofSeconds(dto.getExpireTime()).toMillis() : DEFAULT_TOKEN_TTL.toMillis();
+      long refreshAt = now + Math.max(ttl / 2, ttl - REFRESH_BEFORE_EXPIRE.toMillis());
+      AccessToken accessToken = new AccessToken(dto.getAccessToken(), now + ttl, refreshAt, loginGeneration);
+      // publish token before releasing slot, so next slot owner sees it. Stale token is ignored by readers even if published
+      if (loginGeneration == generation.get()) {
+        token = accessToken;
+      }
+      future.complete(accessToken);
+    } catch (Exception ex) {
+      future.completeExceptionally(ex);
+    } finally {
+      inFlight.compareAndSet(future, null);
+    }
+    return future;
+  }
+
+  private @Nullable AccessToken currentToken() {
+    AccessToken current = token;
+    return current == null || current.generation != generation.get() ? null : current;
+  }
+
+  private static AccessToken await(CompletableFuture<AccessToken> future) {
+    try {
+      return future.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException re) {
+        throw re;
+      }
+      throw ex;
+    }
+  }
+
+  private record AccessToken(@NotNull String value, long expiresAt, long refreshAt, long generation) {
+
+    private boolean isExpired(long now) {
+      return now >= expiresAt;
+    }
+  }
+}
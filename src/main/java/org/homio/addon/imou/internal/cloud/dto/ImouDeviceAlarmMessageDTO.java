@@ -1,8 +1,10 @@
 package org.homio.addon.imou.internal.cloud.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
+import org.apache.commons.lang3.StringUtils;
 
 import java.util.List;
 
@@ -30,5 +32,18 @@ public class ImouDeviceAlarmMessageDTO {
     private List<String> picurlArray;
     private String channelId;
     private String token;
+    // downloaded pictures, same order as getPictureUrls(). Set by local alarm store
+    private List<String> localPictures;
+
+    /**
+     * @return cloud picture urls. Falls back to thumbnail if alarm has no pictures
+     */
+    @JsonIgnore
+    public List<String> getPictureUrls() {
+      if (picurlArray != null && !picurlArray.isEmpty()) {
+        return picurlArray;
+      }
+      return StringUtils.isEmpty(thumbUrl) ? List.of() : List.of(thumbUrl);
+    }
   }
 }
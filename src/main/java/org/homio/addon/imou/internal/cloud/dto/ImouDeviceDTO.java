@@ -2,6 +2,7 @@ package org.homio.addon.imou.internal.cloud.dto;
 
 import lombok.Getter;
 import lombok.ToString;
+import org.homio.api.model.Status;
 
 import java.util.List;
 
@@ -25,6 +26,14 @@ public class ImouDeviceDTO {
   public int platForm;
   public int status;
 
+  public Status getOnlineStatus() {
+    Status onlineStatus = ImouDeviceOnlineStatusDTO.toStatus(status);
+    if (onlineStatus == Status.UNKNOWN && channels != null && channels.stream().anyMatch(c -> c.channelOnline)) {
+      return Status.ONLINE;
+    }
+    return onlineStatus;
+  }
+
   @Getter
   public static class ImouChannel {
 
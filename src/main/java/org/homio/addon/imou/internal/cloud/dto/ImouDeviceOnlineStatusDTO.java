@@ -17,6 +17,10 @@ public class ImouDeviceOnlineStatusDTO {
   private int onLine;
 
   public Status getStatus() {
+    return toStatus(onLine);
+  }
+
+  public static Status toStatus(int onLine) {
     return switch (onLine) {
       case 0 -> Status.OFFLINE;
       case 1 -> Status.ONLINE;
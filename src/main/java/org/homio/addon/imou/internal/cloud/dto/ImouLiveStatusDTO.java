@@ -0,0 +1,23 @@
+package org.homio.addon.imou.internal.cloud.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+@Getter
+@Setter
+@ToString
+// https://open.imoulife.com/book/en/http/device/live/queryLiveStatus.html
+public class ImouLiveStatusDTO {
+
+  public static final int OPEN = 1;
+  public static final int PAUSED = 2;
+  public static final int INSUFFICIENT_TRAFFIC = 3;
+
+  // Live broadcast status (1: open; 2: pause; 3: insufficient traffic)
+  private int liveStatus;
+
+  public boolean isPlayable() {
+    return liveStatus != PAUSED && liveStatus != INSUFFICIENT_TRAFFIC;
+  }
+}
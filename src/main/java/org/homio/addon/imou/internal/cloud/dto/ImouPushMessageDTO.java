@@ -0,0 +1,63 @@
+package org.homio.addon.imou.internal.cloud.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.homio.api.model.Status;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Set;
+
+@Getter
+@Setter
+@ToString
+@JsonIgnoreProperties(ignoreUnknown = true)
+// https://open.imoulife.com/book/en/http/message/callback.html
+public class ImouPushMessageDTO {
+
+  private static final Set<String> STATUS_MESSAGE_TYPES = Set.of("deviceStatus", "online", "offline");
+
+  private String id;
+  // message type: online/offline/deviceStatus for status changes, alarm type(videoMotion, human, ...) otherwise
+  private String msgType;
+  private String type;
+  // device serial number
+  private String did;
+  // channel id
+  private String cid;
+  private long time;
+  private String localDate;
+  // device status for deviceStatus message
+  private String status;
+  private String thumbUrl;
+  private List<String> picurlArray;
+
+  /**
+   * @return true if message reports device status change, false for alarm messages
+   */
+  public boolean isStatusMessage() {
+    return STATUS_MESSAGE_TYPES.contains(msgType);
+  }
+
+  /**
+   * @return device status of status message, null for alarm messages or if status is not known
+   */
+  public @Nullable Status getDeviceStatus() {
+    if (!isStatusMessage()) {
+      return null;
+    }
+    String value = "deviceStatus".equals(msgType) ? status : msgType;
+    if (value == null) {
+      return null;
+    }
+    return switch (value) {
+      case "online", "1" -> Status.ONLINE;
+      case "offline", "0" -> Status.OFFLINE;
+      case "upgrading", "3" -> Status.UPDATING;
+      case "sleep", "sleeping", "4" -> Status.SLEEPING;
+      default -> null;
+    };
+  }
+}
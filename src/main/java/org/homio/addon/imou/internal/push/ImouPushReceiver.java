@@ -0,0 +1,245 @@
+package org.homio.addon.imou.internal.push;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.homio.addon.imou.internal.cloud.dto.ImouPushMessageDTO;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import static org.homio.api.util.JsonUtils.OBJECT_MAPPER;
+
+/**
+ * Embedded http endpoint that receives imou message callbacks(alarm, deviceStatus). Callback url contains secret path segment so only
+ * imou cloud(which knows registered url) is able to post messages.
+ * <p>
+ * Push is trusted only while messages actually arrive. Idle receiver posts probe message to own public callback url, so wrong or
+ * unreachable callback host turns receiver unhealthy and pushed endpoints are polled again
+ */
+@Log4j2
+@RequiredArgsConstructor
+public class ImouPushReceiver {
+
+  public static final String CONTEXT_PATH = "/imou/push/";
+  // push considered lost if nothing(message or own probe) arrived for this time
+  public static final Duration STALE_TIMEOUT = Duration.ofMinutes(25);
+  // probe callback url if no message arrived for this time
+  public static final Duration PROBE_INTERVAL = Duration.ofMinutes(10);
+  static final String PROBE_MESSAGE_TYPE = "homioProbe";
+  private static final byte[] OK_RESPONSE = "{\"code\":\"0\"}".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] PROBE_MESSAGE = ("{\"msgType\":\"" + PROBE_MESSAGE_TYPE + "\"}").getBytes(StandardCharsets.UTF_8);
+  private static final int MAX_BODY_SIZE = 64 * 1024;
+  private static final HttpClient PROBE_CLIENT = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+
+  private final @NotNull String secret;
+  /**
+   * Returns false if message refers to unknown device
+   */
+  private final @NotNull Predicate<ImouPushMessageDTO> messageHandler;
+
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  // messages of one device are applied in order they arrived, different devices don't wait for each other
+  private final Map<String, CompletableFuture<Void>> deviceQueues = new ConcurrentHashMap<>();
+  private @Nullable HttpServer server;
+  private @Nullable ExecutorService executor;
+  private volatile @Nullable String callbackUrl;
+  @Getter
+  private volatile long lastMessageTime;
+  private volatile long lastProbeTime;
+  @Getter
+  private volatile boolean registered;
+
+  public synchronized void start(int port) throws IOException {
+    stop();
+    ExecutorService httpExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("imou-push-", 0).factory());
+    HttpServer httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+    httpServer.createContext(CONTEXT_PATH, this::handle);
+    httpServer.setExecutor(httpExecutor);
+    httpServer.start();
+    server = httpServer;
+    executor = httpExecutor;
+    log.info("Imou push receiver started on port {}", httpServer.getAddress().getPort());
+  }
+
+  public synchronized void stop() {
+    registered = false;
+    callbackUrl = null;
+    lastMessageTime = 0;
+    lastProbeTime = 0;
+    if (server != null) {
+      server.stop(0);
+      server = null;
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    deviceQueues.clear();
+  }
+
+  /**
+   * Close probe client shared by all receivers. Called once when addon is unloaded
+   */
+  public static void shutdown() {
+    PROBE_CLIENT.shutdownNow();
+  }
+
+  public int getPort() {
+    HttpServer httpServer = server;
+    return httpServer == null ? -1 : httpServer.getAddress().getPort();
+  }
+
+  /**
+   * Mark that cloud accepted callback url. Receiver is not healthy until first message arrives
+   */
+  public void register(@NotNull String callbackUrl) {
+    this.callbackUrl = callbackUrl;
+    this.registered = true;
+  }
+
+  /**
+   * Push is healthy when imou cloud accepted callback url and message or own probe arrived recently. Polling of pushed endpoints
+   * may be switched off
+   */
+  public boolean isHealthy() {
+    return isHealthy(System.currentTimeMillis());
+  }
+
+  boolean isHealthy(long now) {
+    return server != null && registered && lastMessageTime > 0 && now - lastMessageTime < STALE_TIMEOUT.toMillis();
+  }
+
+  /**
+   * Post probe message to registered callback url if nothing arrived during PROBE_INTERVAL. Probe goes through public callback
+   * host, so it proves that cloud is able to reach us as well
+   */
+  public void probeIfIdle() {
+    String url = callbackUrl;
+    long now = System.currentTimeMillis();
+    if (server == null || url == null || now - Math.max(lastMessageTime, lastProbeTime) < PROBE_INTERVAL.toMillis()) {
+      return;
+    }
+    lastProbeTime = now;
+    HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+      .timeout(Duration.ofSeconds(10))
+      .header("Content-Type", "application/json")
+      .POST(HttpRequest.BodyPublishers.ofByteArray(PROBE_MESSAGE))
+      .build();
+    PROBE_CLIENT.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, ex) -> {
+      if (ex != null || response.statusCode() != 200) {
+        log.warn("Imou push callback url {} is not reachable: {}. Fallback to polling", url,
+          ex == null ? "HTTP " + response.statusCode() : ex.getMessage());
+      }
+    });
+  }
+
+  public @NotNull String getCallbackPath() {
+    return CONTEXT_PATH + secret;
+  }
+
+  public @NotNull String getStats() {
+    if (server == null) {
+      return "Disabled";
+    }
+    long lastMessage = lastMessageTime;
+    return "Port: %d. Registered: %s. Healthy: %s. Last message: %s. Received: %d. Rejected: %d".formatted(getPort(), registered,
+      isHealthy(), lastMessage == 0 ? "-" : (System.currentTimeMillis() - lastMessage) / 1000 + "s ago", received.get(),
+      rejected.get());
+  }
+
+  /**
+   * Runs on virtual thread. Cloud gets response right after message parsed, message itself is applied in background
+   */
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        reply(exchange, 405);
+        return;
+      }
+      String pathSecret = exchange.getRequestURI().getPath().substring(CONTEXT_PATH.length());
+      if (!MessageDigest.isEqual(pathSecret.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8))) {
+        rejected.incrementAndGet();
+        reply(exchange, 404);
+        return;
+      }
+      ImouPushMessageDTO message;
+      try (InputStream body = exchange.getRequestBody()) {
+        byte[] content = body.readNBytes(MAX_BODY_SIZE);
+        message = OBJECT_MAPPER.readValue(content, ImouPushMessageDTO.class);
+      } catch (Exception ex) {
+        log.warn("Unable to parse imou push message: {}", ex.getMessage());
+        rejected.incrementAndGet();
+        reply(exchange, 400);
+        return;
+      }
+      // any authenticated message proves that callback url is reachable
+      lastMessageTime = System.currentTimeMillis();
+      // always reply success to avoid cloud retries for messages we not interested in
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, OK_RESPONSE.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(OK_RESPONSE);
+      }
+      exchange.close();
+      if (!PROBE_MESSAGE_TYPE.equals(message.getMsgType())) {
+        dispatch(message);
+      }
+    } catch (Exception ex) {
+      log.error("Error handle imou push message", ex);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void dispatch(ImouPushMessageDTO message) {
+    ExecutorService messageExecutor = executor;
+    String did = message.getDid();
+    if (did == null || messageExecutor == null) {
+      log.debug("Skip imou push message for unknown device: {}", message);
+      rejected.incrementAndGet();
+      return;
+    }
+    CompletableFuture<Void> queued = deviceQueues.compute(did, (key, tail) ->
+      (tail == null ? CompletableFuture.<Void>completedFuture(null) : tail).thenRunAsync(() -> apply(message), messageExecutor));
+    queued.whenComplete((ignore, ex) -> deviceQueues.remove(did, queued));
+  }
+
+  private void apply(ImouPushMessageDTO message) {
+    try {
+      if (messageHandler.test(message)) {
+        received.incrementAndGet();
+      } else {
+        log.debug("Skip imou push message for unknown device: {}", message);
+        rejected.incrementAndGet();
+      }
+    } catch (Exception ex) {
+      log.error("Error apply imou push message {}", message, ex);
+    }
+  }
+
+  private static void reply(HttpExchange exchange, int code) throws IOException {
+    exchange.sendResponseHeaders(code, -1);
+  }
+}
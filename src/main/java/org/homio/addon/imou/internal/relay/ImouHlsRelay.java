@@ -0,0 +1,520 @@
+package org.homio.addon.imou.internal.relay;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Local HLS relay. Every stream pulls upstream playlist and segments once and keeps few recent segments in memory ring, any number of
+ * local viewers are served from that ring. Served playlist references segments by relative names, so viewers never talk to cloud.
+ * Stream is started by first viewer request and stopped when nobody requested it for a while. Relay numbers segments itself, so
+ * upstream restart(re-bind, camera reboot) is served to viewers as discontinuity instead of sequence going backwards. Urls contain
+ * secret path segment, so only whoever got url from project is able to watch.
+ */
+@Log4j2
+@RequiredArgsConstructor
+public class ImouHlsRelay {
+
+  public static final String CONTEXT_PATH = "/imou/live/";
+  public static final String PLAYLIST = "index.m3u8";
+  private static final Pattern STREAM_KEY = Pattern.compile("[A-Za-z0-9_-]+");
+  private static final int RING_SIZE = 6;
+  // segments taken from upstream playlist when stream starts. Keeps startup fast and close to live edge
+  private static final int START_SEGMENTS = 3;
+  private static final Duration VIEWER_TIMEOUT = Duration.ofSeconds(30);
+  private static final Duration FIRST_SEGMENT_TIMEOUT = Duration.ofSeconds(15);
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+  private static final int MAX_ERRORS = 10;
+
+  private final @NotNull String secret;
+  /**
+   * Resolves stream key to upstream. Returns null for unknown stream. May block while live session is bound
+   */
+  private final @NotNull Function<String, Upstream> upstreamResolver;
+
+  // stream is published as future before upstream resolved, so concurrent viewers of same stream wait for single resolve
+  private final Map<String, CompletableFuture<RelayStream>> streams = new ConcurrentHashMap<>();
+  private final HttpClient httpClient = HttpClient.newBuilder()
+    .connectTimeout(REQUEST_TIMEOUT)
+    .followRedirects(HttpClient.Redirect.NORMAL)
+    .build();
+  private @Nullable HttpServer server;
+  private @Nullable ExecutorService executor;
+
+  public synchronized void start(int port) throws IOException {
+    stop();
+    // playlist request may wait for first segment, don't block other viewers
+    ExecutorService httpExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("imou-relay-", 0).factory());
+    HttpServer httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+    httpServer.createContext(CONTEXT_PATH, this::handle);
+    httpServer.setExecutor(httpExecutor);
+    httpServer.start();
+    server = httpServer;
+    executor = httpExecutor;
+    log.info("Imou hls relay started on port {}", httpServer.getAddress().getPort());
+  }
+
+  public synchronized void stop() {
+    if (server != null) {
+      server.stop(0);
+      server = null;
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    // stream that is still resolving stops right after start
+    streams.values().forEach(future -> future.thenAccept(stream -> {
+      if (stream != null) {
+        stream.stop();
+      }
+    }));
+    streams.clear();
+  }
+
+  /**
+   * Stop relay and release upstream http client. Relay can't be started again
+   */
+  public synchronized void close() {
+    stop();
+    httpClient.shutdownNow();
+  }
+
+  public int getPort() {
+    HttpServer httpServer = server;
+    return httpServer == null ? -1 : httpServer.getAddress().getPort();
+  }
+
+  public boolean isRunning() {
+    return server != null;
+  }
+
+  public @NotNull String getPlaylistPath(@NotNull String streamKey) {
+    return CONTEXT_PATH + secret + "/" + streamKey + "/" + PLAYLIST;
+  }
+
+  public @NotNull String getStats() {
+    if (server == null) {
+      return "Disabled";
+    }
+    String streamStats = streams.values().stream().map(future -> future.getNow(null)).filter(Objects::nonNull)
+      .map(RelayStream::getStats).collect(Collectors.joining("; "));
+    return "Port: %d. Streams: %d%s".formatted(getPort(), streams.size(), streamStats.isEmpty() ? "" : ". " + streamStats);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        reply(exchange, 405);
+        return;
+      }
+      String[] path = exchange.getRequestURI().getPath().substring(CONTEXT_PATH.length()).split("/");
+      if (path.length != 3 || !MessageDigest.isEqual(path[0].getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8))
+          || !STREAM_KEY.matcher(path[1]).matches()) {
+        reply(exchange, 404);
+        return;
+      }
+      RelayStream stream;
+      try {
+        stream = getOrStartStream(path[1]);
+      } catch (ExecutionException | RuntimeException ex) {
+        log.warn("Unable to start imou relay {}: {}", path[1], ex.getMessage());
+        reply(exchange, 502);
+        return;
+      }
+      if (stream == null) {
+        reply(exchange, 404);
+        return;
+      }
+      stream.touch(exchange.getRemoteAddress().getAddress().getHostAddress());
+      if (PLAYLIST.equals(path[2])) {
+        String playlist = stream.awaitPlaylist();
+        if (playlist == null) {
+          reply(exchange, 503);
+          return;
+        }
+        send(exchange, stream, "application/vnd.apple.mpegurl", playlist.getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+      Segment segment = stream.getSegment(StringUtils.substringBefore(path[2], "."));
+      if (segment == null) {
+        reply(exchange, 404);
+        return;
+      }
+      send(exchange, stream, "video/mp2t", segment.data);
+    } catch (Exception ex) {
+      log.debug("Error serve imou relay request {}: {}", exchange.getRequestURI(), ex.getMessage());
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Upstream is resolved by first viewer outside of any lock, other viewers of same stream wait for it's result
+   *
+   * @return null if stream is unknown
+   * @throws ExecutionException if upstream resolve failed
+   */
+  private @Nullable RelayStream getOrStartStream(String key) throws ExecutionException, InterruptedException {
+    CompletableFuture<RelayStream> starting = new CompletableFuture<>();
+    CompletableFuture<RelayStream> existing = streams.putIfAbsent(key, starting);
+    if (existing != null) {
+      return existing.get();
+    }
+    try {
+      Upstream upstream = server == null ? null : upstreamResolver.apply(key);
+      if (upstream == null) {
+        streams.remove(key, starting);
+        starting.complete(null);
+        return null;
+      }
+      RelayStream stream = new RelayStream(key, upstream);
+      // publish before start: puller removes own future from streams when it stops
+      starting.complete(stream);
+      stream.start();
+      return stream;
+    } catch (RuntimeException ex) {
+      streams.remove(key, starting);
+      starting.completeExceptionally(ex);
+      throw ex;
+    }
+  }
+
+  private static void send(HttpExchange exchange, RelayStream stream, String contentType, byte[] content) throws IOException {
+    exchange.getResponseHeaders().add("Content-Type", contentType);
+    exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+    exchange.sendResponseHeaders(200, content.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(content);
+    }
+    stream.bytesOut.add(content.length);
+  }
+
+  private static void reply(HttpExchange exchange, int code) throws IOException {
+    exchange.sendResponseHeaders(code, -1);
+  }
+
+  private static HttpRequest request(URI uri) {
+    return HttpRequest.newBuilder(uri).timeout(REQUEST_TIMEOUT).GET().build();
+  }
+
+  private static void assertOk(URI uri, int statusCode) throws IOException {
+    if (statusCode != 200) {
+      throw new IOException("Status %d for %s".formatted(statusCode, StringUtils.substringBefore(uri.toString(), "?")));
+    }
+  }
+
+  /**
+   * Source of relayed stream. Playlist url may change during stream life(e.g. after re-bind), it's re-read on every poll
+   */
+  public interface Upstream {
+
+    @Nullable
+    String getPlaylistUrl();
+
+    /**
+     * Called once when relay stops pulling stream
+     */
+    default void close() {
+    }
+
+    /**
+     * Fixed upstream, e.g. local test HLS server
+     */
+    static @NotNull Upstream of(@NotNull String playlistUrl) {
+      return () -> playlistUrl;
+    }
+  }
+
+  @RequiredArgsConstructor
+  private class RelayStream {
+
+    private final String key;
+    private final Upstream upstream;
+    private final ArrayDeque<Segment> ring = new ArrayDeque<>(RING_SIZE);
+    private final Map<String, Long> viewers = new ConcurrentHashMap<>();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    // guards ring and playlist state. Not synchronized: viewers wait for first segment on virtual threads and must not pin carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition segmentAdded = lock.newCondition();
+    private volatile long lastAccess = System.currentTimeMillis();
+    private volatile long lag;
+    private volatile boolean stopped;
+    private volatile double targetDuration = 2;
+    // last relayed upstream sequence and playlist url it was read from
+    private long lastSequence = -1;
+    private @Nullable String lastPlaylistUrl;
+    // sequence of last segment served by relay, never goes backwards
+    private long relaySequence = -1;
+    private long discontinuitySequence;
+    private boolean discontinuity;
+    private @Nullable Thread puller;
+
+    private void start() {
+      puller = Thread.ofVirtual().name("imou-relay-pull-" + key).start(this::pull);
+    }
+
+    private void stop() {
+      stopped = true;
+      if (puller != null) {
+        puller.interrupt();
+      }
+    }
+
+    private void touch(String viewer) {
+      lastAccess = System.currentTimeMillis();
+      viewers.put(viewer, lastAccess);
+    }
+
+    private int getViewerCount() {
+      long minTime = System.currentTimeMillis() - VIEWER_TIMEOUT.toMillis();
+      viewers.values().removeIf(time -> time < minTime);
+      return viewers.size();
+    }
+
+    private String getStats() {
+      return "%s: viewers %d, in %dKb, out %dKb, lag %d".formatted(key, getViewerCount(), bytesIn.sum() / 1024,
+        bytesOut.sum() / 1024, lag);
+    }
+
+    private @Nullable Segment getSegment(String name) {
+      if (!StringUtils.isNumeric(name)) {
+        return null;
+      }
+      long sequence = Long.parseLong(name);
+      lock.lock();
+      try {
+        for (Segment segment : ring) {
+          if (segment.sequence == sequence) {
+            return segment;
+          }
+        }
+        return null;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private @Nullable String awaitPlaylist() throws InterruptedException {
+      long timeout = FIRST_SEGMENT_TIMEOUT.toNanos();
+      lock.lock();
+      try {
+        while (ring.isEmpty() && !stopped) {
+          if (timeout <= 0) {
+            return null;
+          }
+          timeout = segmentAdded.awaitNanos(timeout);
+        }
+        return ring.isEmpty() ? null : buildPlaylist();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Called with lock held
+     */
+    private String buildPlaylist() {
+      StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n");
+      playlist.append("#EXT-X-TARGETDURATION:").append((long) Math.ceil(targetDuration)).append('\n');
+      playlist.append("#EXT-X-MEDIA-SEQUENCE:").append(ring.getFirst().sequence).append('\n');
+      playlist.append("#EXT-X-DISCONTINUITY-SEQUENCE:").append(discontinuitySequence).append('\n');
+      for (Segment segment : ring) {
+        if (segment.discontinuity) {
+          playlist.append("#EXT-X-DISCONTINUITY\n");
+        }
+        playlist.append(String.format(Locale.ROOT, "#EXTINF:%.3f,\n", segment.duration));
+        playlist.append(segment.sequence).append(".ts\n");
+      }
+      return playlist.toString();
+    }
+
+    private void addSegment(double duration, byte[] data, double targetDuration) {
+      lock.lock();
+      try {
+        if (ring.size() == RING_SIZE && ring.removeFirst().discontinuity) {
+          discontinuitySequence++;
+        }
+        ring.addLast(new Segment(++relaySequence, duration, data, discontinuity));
+        discontinuity = false;
+        this.targetDuration = targetDuration;
+        segmentAdded.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void pull() {
+      int errors = 0;
+      try {
+        while (!stopped && System.currentTimeMillis() - lastAccess < VIEWER_TIMEOUT.toMillis()) {
+          double pollDuration = targetDuration;
+          try {
+            pollDuration = poll();
+            errors = 0;
+          } catch (IOException | RuntimeException ex) {
+            log.debug("Imou relay {} upstream error: {}", key, ex.getMessage());
+            if (++errors == MAX_ERRORS) {
+              log.warn("Stop imou relay {} after {} upstream errors: {}", key, errors, ex.getMessage());
+              break;
+            }
+          }
+          // new segment appears once per target duration, poll twice as often
+          Thread.sleep(Math.max(500, (long) (pollDuration * 500)));
+        }
+      } catch (InterruptedException ignore) {
+      } finally {
+        stopped = true;
+        streams.computeIfPresent(key, (ignore, future) -> future.getNow(null) == this ? null : future);
+        lock.lock();
+        try {
+          segmentAdded.signalAll();
+        } finally {
+          lock.unlock();
+        }
+        upstream.close();
+        log.info("Imou relay {} stopped", key);
+      }
+    }
+
+    /**
+     * @return upstream target duration
+     */
+    private double poll() throws IOException, InterruptedException {
+      String url = upstream.getPlaylistUrl();
+      if (StringUtils.isEmpty(url)) {
+        return targetDuration;
+      }
+      URI playlistUri = URI.create(url);
+      Playlist playlist = Playlist.parse(fetchText(playlistUri));
+      if (playlist.variant != null) {
+        // master playlist. Relay first variant
+        playlistUri = playlistUri.resolve(playlist.variant);
+        playlist = Playlist.parse(fetchText(playlistUri));
+      }
+      long newest = playlist.mediaSequence + playlist.segments.size() - 1;
+      boolean rebound = lastPlaylistUrl != null && !lastPlaylistUrl.equals(url);
+      // upstream restarted: sequence went backwards or new playlist doesn't continue relayed one
+      if (lastSequence != -1 && (newest < lastSequence || rebound && lastSequence < playlist.mediaSequence - 1)) {
+        log.info("Imou relay {} upstream restarted at sequence {}(was {})", key, newest, lastSequence);
+        lastSequence = -1;
+        lock.lock();
+        try {
+          discontinuity = !ring.isEmpty();
+        } finally {
+          lock.unlock();
+        }
+      }
+      lastPlaylistUrl = url;
+      if (lastSequence == -1) {
+        lastSequence = newest - START_SEGMENTS;
+      }
+      for (int i = 0; i < playlist.segments.size(); i++) {
+        long sequence = playlist.mediaSequence + i;
+        if (sequence > lastSequence) {
+          PlaylistSegment source = playlist.segments.get(i);
+          byte[] data = fetchBytes(playlistUri.resolve(source.uri));
+          bytesIn.add(data.length);
+          addSegment(source.duration, data, playlist.targetDuration);
+          lastSequence = sequence;
+        }
+      }
+      lag = Math.max(0, newest - lastSequence);
+      return playlist.targetDuration;
+    }
+
+    private String fetchText(URI uri) throws IOException, InterruptedException {
+      HttpResponse<String> response = httpClient.send(request(uri), BodyHandlers.ofString());
+      assertOk(uri, response.statusCode());
+      bytesIn.add(response.body().length());
+      return response.body();
+    }
+
+    private byte[] fetchBytes(URI uri) throws IOException, InterruptedException {
+      HttpResponse<byte[]> response = httpClient.send(request(uri), BodyHandlers.ofByteArray());
+      assertOk(uri, response.statusCode());
+      return response.body();
+    }
+  }
+
+  private record Segment(long sequence, double duration, byte[] data, boolean discontinuity) {
+
+  }
+
+  private record PlaylistSegment(double duration, String uri) {
+
+  }
+
+  private record Playlist(double targetDuration, long mediaSequence, List<PlaylistSegment> segments, @Nullable String variant) {
+
+    private static Playlist parse(String content) throws IOException {
+      if (!content.startsWith("#EXTM3U")) {
+        throw new IOException("Not a HLS playlist");
+      }
+      double targetDuration = 2;
+      long mediaSequence = 0;
+      List<PlaylistSegment> segments = new ArrayList<>();
+      String variant = null;
+      double duration = -1;
+      boolean variantNext = false;
+      for (String line : content.split("\\R")) {
+        line = line.trim();
+        if (line.isEmpty()) {
+          continue;
+        }
+        if (line.startsWith("#EXT-X-TARGETDURATION:")) {
+          targetDuration = Double.parseDouble(line.substring(22));
+        } else if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+          mediaSequence = Long.parseLong(line.substring(22));
+        } else if (line.startsWith("#EXTINF:")) {
+          duration = Double.parseDouble(StringUtils.substringBefore(line.substring(8), ","));
+        } else if (line.startsWith("#EXT-X-STREAM-INF")) {
+          variantNext = true;
+        } else if (!line.startsWith("#")) {
+          if (variantNext && variant == null) {
+            variant = line;
+          } else if (duration >= 0) {
+            segments.add(new PlaylistSegment(duration, line));
+          }
+          duration = -1;
+          variantNext = false;
+        }
+      }
+      return new Playlist(targetDuration, mediaSequence, segments, variant);
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package org.homio.addon.imou.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceAlarmMessageDTO.Alarm;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Downloads alarm pictures before imou signed urls expire. Downloads run on small fixed pool, same url is never queued twice and
+ * failed download is retried with growing delay until url expires. Response body is streamed to file, never buffered in heap.
+ */
+@Log4j2
+@Service
+public class ImouAlarmPictureFetcher {
+
+  private static final int CONCURRENCY = 4;
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+  private static final Duration FIRST_RETRY_DELAY = Duration.ofSeconds(5);
+  private static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(5);
+  // used if url carries no expiry parameters
+  private static final Duration DEFAULT_URL_LIFETIME = Duration.ofMinutes(30);
+  private static final DateTimeFormatter SIGN_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+  private final ImouAlarmStore alarmStore;
+  private final HttpClient httpClient = HttpClient.newBuilder()
+    .connectTimeout(Duration.ofSeconds(10))
+    .followRedirects(HttpClient.Redirect.NORMAL)
+    .build();
+  private final ThreadPoolExecutor executor = new ThreadPoolExecutor(CONCURRENCY, CONCURRENCY, 60, TimeUnit.SECONDS,
+    new LinkedBlockingQueue<>(), Thread.ofPlatform().name("imou-alarm-picture-", 0).daemon().factory());
+  private final Set<String> pendingUrls = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger waitingRetry = new AtomicInteger();
+  private final LongAdder downloaded = new LongAdder();
+  private final LongAdder downloadedBytes = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final long startTime = System.currentTimeMillis();
+
+  public ImouAlarmPictureFetcher(ImouAlarmStore alarmStore) {
+    this.alarmStore = alarmStore;
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Queue download of all pictures of alarms. Pictures that already on disk or queued are skipped
+   */
+  public void enqueue(@NotNull String deviceId, @NotNull Collection<Alarm> alarms) {
+    for (Alarm alarm : alarms) {
+      List<String> urls = alarm.getPictureUrls();
+      for (int i = 0; i < urls.size(); i++) {
+        String url = urls.get(i);
+        Path target = alarmStore.getPicturePath(deviceId, alarm, i);
+        if (StringUtils.isEmpty(url) || Files.exists(target) || !pendingUrls.add(url)) {
+          continue;
+        }
+        long expireTime = getExpireTime(url, System.currentTimeMillis());
+        submit(url, () -> download(url, target, expireTime, 0));
+      }
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    executor.shutdownNow();
+    httpClient.shutdownNow();
+    pendingUrls.clear();
+  }
+
+  public @NotNull String getStats() {
+    double minutes = Math.max(1, (System.currentTimeMillis() - startTime) / 60000D);
+    return "Backlog: %d. Active: %d. Retrying: %d. Downloaded: %d(%dKb). Rate: %.1f/min. Retries: %d. Failed: %d".formatted(
+      executor.getQueue().size(), executor.getActiveCount(), waitingRetry.get(), downloaded.sum(), downloadedBytes.sum() / 1024,
+      downloaded.sum() / minutes, retries.sum(), failed.sum());
+  }
+
+  /**
+   * Expiry time of signed url. Supports OSS style 'Expires' epoch seconds and S3/OSS v4 style sign date plus expires seconds
+   */
+  static long getExpireTime(@NotNull String url, long now) {
+    Map<String, String> params = new HashMap<>();
+    for (String param : StringUtils.split(StringUtils.substringAfter(url, "?"), '&')) {
+      params.put(StringUtils.substringBefore(param, "=").toLowerCase(), StringUtils.substringAfter(param, "="));
+    }
+    try {
+      String expires = params.get("expires");
+      if (expires != null) {
+        return TimeUnit.SECONDS.toMillis(Long.parseLong(expires));
+      }
+      String date = params.getOrDefault("x-amz-date", params.get("x-oss-date"));
+      expires = params.getOrDefault("x-amz-expires", params.get("x-oss-expires"));
+      if (date != null && expires != null) {
+        long signTime = LocalDateTime.parse(date, SIGN_DATE_FORMAT).toInstant(ZoneOffset.UTC).toEpochMilli();
+        return signTime + TimeUnit.SECONDS.toMillis(Long.parseLong(expires));
+      }
+    } catch (NumberFormatException | DateTimeParseException ex) {
+      log.debug("Unable to parse expiry of imou picture url {}", StringUtils.substringBefore(url, "?"));
+    }
+    return now + DEFAULT_URL_LIFETIME.toMillis();
+  }
+
+  private void download(String url, Path target, long expireTime, int attempt) {
+    if (System.currentTimeMillis() >= expireTime) {
+      fail(url, "expired");
+      return;
+    }
+    Path tmpFile = target.resolveSibling(target.getFileName() + ".part");
+    String error;
+    try {
+      Files.createDirectories(target.getParent());
+      HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT).GET().build();
+      HttpResponse<Path> response = httpClient.send(request, BodyHandlers.ofFile(tmpFile));
+      if (response.statusCode() == 200) {
+        Files.move(tmpFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        downloaded.increment();
+        downloadedBytes.add(Files.size(target));
+        pendingUrls.remove(url);
+        return;
+      }
+      // signed url expired or access denied. Retry makes no sense
+      if (response.statusCode() == 403) {
+        fail(url, "expired");
+        return;
+      }
+      error = "status " + response.statusCode();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      pendingUrls.remove(url);
+      return;
+    } catch (IOException ex) {
+      error = ex.getMessage();
+    } catch (RuntimeException ex) {
+      fail(url, ex.getMessage());
+      return;
+    } finally {
+      deleteQuietly(tmpFile);
+    }
+    retry(url, target, expireTime, attempt, error);
+  }
+
+  private void retry(String url, Path target, long expireTime, int attempt, String reason) {
+    long delay = Math.min(MAX_RETRY_DELAY.toMillis(), FIRST_RETRY_DELAY.toMillis() << Math.min(attempt, 16));
+    if (System.currentTimeMillis() + delay >= expireTime) {
+      fail(url, reason);
+      return;
+    }
+    retries.increment();
+    waitingRetry.incrementAndGet();
+    CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+      waitingRetry.decrementAndGet();
+      submit(url, () -> download(url, target, expireTime, attempt + 1));
+    });
+  }
+
+  private void submit(String url, Runnable download) {
+    try {
+      executor.execute(download);
+    } catch (RejectedExecutionException ex) {
+      // fetcher closed
+      pendingUrls.remove(url);
+    }
+  }
+
+  private void fail(String url, String reason) {
+    failed.increment();
+    pendingUrls.remove(url);
+    log.warn("Unable to download imou alarm picture {}: {}", StringUtils.substringBefore(url, "?"), reason);
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException ignore) {
+    }
+  }
+}
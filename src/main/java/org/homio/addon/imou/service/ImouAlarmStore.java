@@ -0,0 +1,417 @@
+package org.homio.addon.imou.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceAlarmMessageDTO.Alarm;
+import org.homio.api.util.CommonUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.homio.api.util.JsonUtils.OBJECT_MAPPER;
+
+/**
+ * Append-only local store of imou alarms. Every device has own directory with one segment file per day, each alarm is single json
+ * line. Segments are scanned through memory mapping, per segment index(alarm ids and counts per hour) is built once on first access,
+ * so range queries touch only segments of requested days and hourly counts are served from memory. Alarm pictures are stored in
+ * per day directories next to segments.
+ */
+@Log4j2
+@Service
+public class ImouAlarmStore {
+
+  public static final int DEFAULT_RETENTION_DAYS = 30;
+  private static final String SEGMENT_SUFFIX = ".jsonl";
+  private static final int MAX_APPEND_CHANNELS = 32;
+
+  // file IO under lock: ReentrantLock does not pin virtual thread carrier as synchronized does
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<Path, SegmentIndex> indexes = new HashMap<>();
+  // open append channels of recently written segments, eldest is closed when limit reached
+  private final Map<Path, FileChannel> appendChannels = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Path, FileChannel> eldest) {
+      if (size() > MAX_APPEND_CHANNELS) {
+        closeQuietly(eldest.getValue());
+        return true;
+      }
+      return false;
+    }
+  };
+  private final Path root = CommonUtils.getFilesPath().resolve("imou").resolve("alarms");
+  // per device, set by owning project. Store is shared by all projects
+  private final Map<String, Integer> retentionDays = new ConcurrentHashMap<>();
+  private volatile LocalDate lastPurgeDay;
+
+  /**
+   * Keep alarms of device for given days. Devices without own retention keep them {@link #DEFAULT_RETENTION_DAYS}
+   */
+  public void setRetentionDays(@NotNull String deviceId, int days) {
+    Integer retention = Math.max(1, days);
+    if (!retention.equals(retentionDays.put(deviceId, retention))) {
+      lastPurgeDay = null;
+    }
+  }
+
+  /**
+   * Append alarms skipping already stored ones
+   *
+   * @return number of stored alarms
+   */
+  @SneakyThrows
+  public int append(@NotNull String deviceId, @NotNull Collection<Alarm> alarms) {
+    lock.lock();
+    try {
+      purgeExpiredIfNeed();
+      int stored = 0;
+      for (Alarm alarm : alarms) {
+        Path segment = getSegment(deviceId, toDate(alarm.getTime()));
+        SegmentIndex index = getIndex(segment);
+        if (alarm.getAlarmId() != null && !index.alarmIds.add(alarm.getAlarmId())) {
+          continue;
+        }
+        index.hourCounts[toDateTime(alarm.getTime()).getHour()]++;
+        linkPictures(deviceId, alarm);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+        OBJECT_MAPPER.writeValue(line, alarm);
+        line.write('\n');
+        getAppendChannel(segment).write(ByteBuffer.wrap(line.toByteArray()));
+        stored++;
+      }
+      return stored;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return device alarms in [from, to) ordered from newest to oldest. Alarm localPictures contains only already downloaded files
+   */
+  public @NotNull List<Alarm> query(@NotNull String deviceId, @NotNull Instant from, @NotNull Instant to) {
+    lock.lock();
+    try {
+      List<Alarm> result = new ArrayList<>();
+      for (Path segment : getSegments(deviceId, from, to)) {
+        readSegment(segment, alarm -> {
+          if (alarm.getTime() >= from.getEpochSecond() && alarm.getTime() < to.getEpochSecond()) {
+            if (alarm.getLocalPictures() != null) {
+              // picture download may still run or failed
+              alarm.setLocalPictures(alarm.getLocalPictures().stream().filter(path -> Files.exists(Path.of(path))).toList());
+            }
+            result.add(alarm);
+          }
+        });
+      }
+      result.sort((a1, a2) -> Long.compare(a2.getTime(), a1.getTime()));
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return number of alarms per hour in [from, to). Whole hours are served from segment index without reading alarms, partial hours
+   * at range edges are counted from alarms of that part only
+   */
+  public @NotNull SortedMap<LocalDateTime, Integer> countPerHour(@NotNull String deviceId, @NotNull Instant from,
+    @NotNull Instant to) {
+    lock.lock();
+    try {
+      LocalDateTime start = toDateTime(from.getEpochSecond());
+      LocalDateTime firstFullHour = start.truncatedTo(ChronoUnit.HOURS);
+      if (!firstFullHour.equals(start)) {
+        firstFullHour = firstFullHour.plusHours(1);
+      }
+      LocalDateTime fullHoursEnd = toDateTime(to.getEpochSecond()).truncatedTo(ChronoUnit.HOURS);
+      SortedMap<LocalDateTime, Integer> result = new TreeMap<>();
+      for (Path segment : getSegments(deviceId, from, to)) {
+        LocalDate day = getSegmentDay(segment);
+        int[] hourCounts = getIndex(segment).hourCounts;
+        for (int hour = 0; hour < 24; hour++) {
+          LocalDateTime time = day.atTime(hour, 0);
+          if (hourCounts[hour] > 0 && !time.isBefore(firstFullHour) && !time.plusHours(1).isAfter(fullHoursEnd)) {
+            result.put(time, hourCounts[hour]);
+          }
+        }
+      }
+      Instant headEnd = min(to, toInstant(firstFullHour));
+      countExact(deviceId, from, headEnd, result);
+      Instant tailStart = toInstant(fullHoursEnd);
+      if (!tailStart.isBefore(headEnd)) {
+        countExact(deviceId, tailStart, to, result);
+      }
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void purgeExpired() {
+    lock.lock();
+    try {
+      if (!Files.isDirectory(root)) {
+        return;
+      }
+      LocalDate today = LocalDate.now();
+      try (Stream<Path> devices = Files.list(root)) {
+        for (Path deviceDir : devices.toList()) {
+          String deviceId = deviceDir.getFileName().toString();
+          LocalDate minDay = today.minusDays(retentionDays.getOrDefault(deviceId, DEFAULT_RETENTION_DAYS));
+          try (Stream<Path> segments = Files.list(deviceDir)) {
+            for (Path segment : segments.toList()) {
+              if (getSegmentDay(segment).isBefore(minDay)) {
+                indexes.remove(segment);
+                closeQuietly(appendChannels.remove(segment));
+                // segment file or directory with alarm pictures of that day
+                deleteRecursively(segment);
+              }
+            }
+          }
+        }
+      } catch (IOException ex) {
+        log.warn("Unable to purge expired imou alarms: {}", ex.getMessage());
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void remove(@NotNull String deviceId) {
+    lock.lock();
+    try {
+      Path deviceDir = root.resolve(deviceId);
+      retentionDays.remove(deviceId);
+      indexes.keySet().removeIf(path -> path.startsWith(deviceDir));
+      appendChannels.entrySet().removeIf(entry -> {
+        if (entry.getKey().startsWith(deviceDir)) {
+          closeQuietly(entry.getValue());
+          return true;
+        }
+        return false;
+      });
+      try {
+        deleteRecursively(deviceDir);
+      } catch (IOException ex) {
+        log.warn("Unable to remove imou alarms of {}: {}", deviceId, ex.getMessage());
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return local file of alarm picture. Pictures are kept in per day directory next to alarm segment and share it's retention
+   */
+  public @NotNull Path getPicturePath(@NotNull String deviceId, @NotNull Alarm alarm, int index) {
+    return root.resolve(deviceId).resolve(toDate(alarm.getTime()).toString())
+      .resolve("%s-%d.jpg".formatted(alarm.getAlarmId(), index));
+  }
+
+  @PreDestroy
+  public void close() {
+    lock.lock();
+    try {
+      appendChannels.values().forEach(ImouAlarmStore::closeQuietly);
+      appendChannels.clear();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Alarm record keeps local files of it's pictures, so stored alarm stays viewable after imou signed urls expired
+   */
+  private void linkPictures(String deviceId, Alarm alarm) {
+    List<String> urls = alarm.getPictureUrls();
+    if (urls.isEmpty()) {
+      return;
+    }
+    List<String> pictures = new ArrayList<>(urls.size());
+    for (int i = 0; i < urls.size(); i++) {
+      pictures.add(getPicturePath(deviceId, alarm, i).toString());
+    }
+    alarm.setLocalPictures(pictures);
+  }
+
+  /**
+   * Channel stays open while alarms of that day arrive, instead of open/close per alarm
+   */
+  private FileChannel getAppendChannel(Path segment) throws IOException {
+    FileChannel channel = appendChannels.get(segment);
+    if (channel == null || !channel.isOpen()) {
+      Files.createDirectories(segment.getParent());
+      channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      appendChannels.put(segment, channel);
+    }
+    return channel;
+  }
+
+  private void countExact(String deviceId, Instant from, Instant to, SortedMap<LocalDateTime, Integer> result) {
+    if (!from.isBefore(to)) {
+      return;
+    }
+    for (Path segment : getSegments(deviceId, from, to)) {
+      readSegment(segment, alarm -> {
+        if (alarm.getTime() >= from.getEpochSecond() && alarm.getTime() < to.getEpochSecond()) {
+          result.merge(toDateTime(alarm.getTime()).truncatedTo(ChronoUnit.HOURS), 1, Integer::sum);
+        }
+      });
+    }
+  }
+
+  private void purgeExpiredIfNeed() {
+    LocalDate today = LocalDate.now();
+    if (!today.equals(lastPurgeDay)) {
+      lastPurgeDay = today;
+      purgeExpired();
+    }
+  }
+
+  private List<Path> getSegments(String deviceId, Instant from, Instant to) {
+    List<Path> segments = new ArrayList<>();
+    LocalDate toDay = toDate(to.getEpochSecond());
+    for (LocalDate day = toDate(from.getEpochSecond()); !day.isAfter(toDay); day = day.plusDays(1)) {
+      Path segment = getSegment(deviceId, day);
+      if (Files.exists(segment)) {
+        segments.add(segment);
+      }
+    }
+    return segments;
+  }
+
+  private Path getSegment(String deviceId, LocalDate day) {
+    return root.resolve(deviceId).resolve(day + SEGMENT_SUFFIX);
+  }
+
+  private SegmentIndex getIndex(Path segment) {
+    return indexes.computeIfAbsent(segment, path -> {
+      SegmentIndex index = new SegmentIndex();
+      if (Files.exists(path)) {
+        readSegment(path, alarm -> {
+          if (alarm.getAlarmId() != null) {
+            index.alarmIds.add(alarm.getAlarmId());
+          }
+          index.hourCounts[toDateTime(alarm.getTime()).getHour()]++;
+        });
+      }
+      return index;
+    });
+  }
+
+  private static void readSegment(Path segment, Consumer<Alarm> consumer) {
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      byte[] line = new byte[1024];
+      int length = 0;
+      while (buffer.hasRemaining()) {
+        byte value = buffer.get();
+        if (value == '\n') {
+          parseLine(segment, line, length, consumer);
+          length = 0;
+        } else {
+          if (length == line.length) {
+            line = Arrays.copyOf(line, length * 2);
+          }
+          line[length++] = value;
+        }
+      }
+      // last line may be not terminated if process crashed during write
+      parseLine(segment, line, length, consumer);
+    } catch (IOException ex) {
+      log.warn("Unable to read imou alarm segment {}: {}", segment, ex.getMessage());
+    }
+  }
+
+  private static void parseLine(Path segment, byte[] line, int length, Consumer<Alarm> consumer) {
+    if (length == 0) {
+      return;
+    }
+    try {
+      consumer.accept(OBJECT_MAPPER.readValue(line, 0, length, Alarm.class));
+    } catch (IOException ex) {
+      log.warn("Skip broken imou alarm record in {}: {}", segment, ex.getMessage());
+    }
+  }
+
+  private static void deleteRecursively(Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(path)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  private static void closeQuietly(@Nullable FileChannel channel) {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        log.warn("Unable to close imou alarm segment: {}", ex.getMessage());
+      }
+    }
+  }
+
+  private static Instant min(Instant first, Instant second) {
+    return first.isBefore(second) ? first : second;
+  }
+
+  private static Instant toInstant(LocalDateTime dateTime) {
+    return dateTime.atZone(ZoneId.systemDefault()).toInstant();
+  }
+
+  private static LocalDate getSegmentDay(Path segment) {
+    try {
+      return LocalDate.parse(segment.getFileName().toString().replace(SEGMENT_SUFFIX, ""));
+    } catch (Exception ex) {
+      return LocalDate.MAX;
+    }
+  }
+
+  private static LocalDate toDate(long epochSecond) {
+    return LocalDate.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneId.systemDefault());
+  }
+
+  private static LocalDateTime toDateTime(long epochSecond) {
+    return LocalDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneId.systemDefault());
+  }
+
+  private static class SegmentIndex {
+
+    private final Set<String> alarmIds = new HashSet<>();
+    private final int[] hourCounts = new int[24];
+  }
+}
@@ -7,14 +7,17 @@ import org.homio.addon.imou.ImouDeviceEndpoint;
 import org.homio.addon.imou.ImouDeviceEntity;
 import org.homio.addon.imou.ImouProjectEntity;
 import org.homio.addon.imou.internal.cloud.ImouAPI;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceAlarmMessageDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceAlarmMessageDTO.Alarm;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceCallbackUrlDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceNightVisionModeDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouDevicePowerInfoDTO;
+import org.homio.addon.imou.internal.cloud.dto.ImouPushMessageDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceStatusDTO;
 import org.homio.addon.imou.internal.cloud.dto.ImouSDCardDTO.ImouSDCardStatusDTO;
+import org.homio.addon.imou.service.ImouSnapshotStore.CachedSnapshot;
+import org.homio.addon.imou.service.ImouSnapshotStore.Variant;
 import org.homio.api.Context;
-import org.homio.api.ContextBGP.ThreadContext;
 import org.homio.api.model.Icon;
 import org.homio.api.model.OptionModel;
 import org.homio.api.model.Status;
@@ -28,12 +31,15 @@ import org.homio.api.state.OnOffType;
 import org.homio.api.state.State;
 import org.homio.api.state.StringType;
 import org.homio.api.ui.UI;
-import org.homio.api.ui.UI.Image.Snapshot;
 import org.homio.api.ui.field.action.v1.UIInputBuilder;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -41,7 +47,10 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
@@ -61,28 +70,68 @@ public class ImouDeviceService extends ServiceInstance<ImouDeviceEntity> {
 
   public static final ConfigDeviceDefinitionService CONFIG_DEVICE_SERVICE =
     new ConfigDeviceDefinitionService("imou-devices.json");
+  public static final String ENDPOINT_MOTION_ALARM = "motionAlarm";
+  // endpoints which value delivered by imou message callback
+  private static final Set<String> PUSH_ENDPOINTS = Set.of(ENDPOINT_MOTION_ALARM);
+  private static final int MAX_BACKOFF_EXPONENT = 6;
+  private static final Duration MAX_OFFLINE_BACKOFF = Duration.ofHours(1);
+  private static final Duration INITIALIZE_DEADLINE = Duration.ofSeconds(30);
+  // how deep to look for alarms when device has no sync history
+  private static final Duration INITIAL_ALARM_WINDOW = Duration.ofDays(1);
+  private static final int MAX_ALARM_PAGES = 20;
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+    .withZone(ZoneId.systemDefault());
 
   @Getter
   private final @NotNull Map<String, ImouDeviceEndpoint> endpoints = new ConcurrentHashMap<>();
+  @Getter
   private final String deviceId;
-  private final @NotNull
-  @Getter ImouAPI api;
-  private final Snapshot snapshot;
+  private final ImouSnapshotStore snapshotStore;
+  private final ImouAlarmStore alarmStore;
   private List<ConfigDeviceDefinition> models;
   private boolean initialized;
-  private ThreadContext<Void> deviceStatusCheck;
+  private final Semaphore readPermits = new Semaphore(ImouParallelReader.DEVICE_CONCURRENCY);
+  private final ReentrantLock alarmSyncLock = new ReentrantLock();
+  private int offlineBackoff;
+  private long nextOfflineAttemptTime;
   private int order = 100;
   private ImouDeviceEndpoint statusEndpoint;
+  // api of owning project and id of that project
+  private volatile @Nullable ImouAPI api;
+  private volatile @Nullable String apiProjectID;
+  // status message set by device breaker. Messages set by others are not cleared by breaker
+  private @Nullable String circuitStatusMessage;
 
   public ImouDeviceService(Context context, ImouDeviceEntity entity) {
     super(context, entity, true, "Imou");
     this.deviceId = entity.getIeeeAddress();
-    this.api = context.getBean(ImouAPI.class);
-    this.snapshot = new Snapshot(entity.getImageCacheInterval());
+    this.snapshotStore = context.getBean(ImouSnapshotStore.class);
+    this.alarmStore = context.getBean(ImouAlarmStore.class);
+  }
+
+  /**
+   * Api of project that owns device. Resolved once and again only when user moved device to other project
+   */
+  public @NotNull ImouAPI getApi() {
+    ImouAPI projectApi = api;
+    if (projectApi == null || !entity.getProjectID().equals(apiProjectID)) {
+      ImouProjectEntity project = entity.getProject();
+      projectApi = project.getService().getApi();
+      apiProjectID = project.getEntityID();
+      api = projectApi;
+    }
+    return projectApi;
+  }
+
+  /**
+   * Called when project service (re)initialized
+   */
+  void resetApi() {
+    api = null;
   }
 
   @NotNull
-  private static Map<String, ConfigDeviceEndpoint> getSwitches(List<String> capabilities) {
+  static Map<String, ConfigDeviceEndpoint> getSwitches(List<String> capabilities) {
     Set<String> fixedCapabilities = capabilities.stream()
       .map(c -> c.toLowerCase().replaceAll("v\\d$", ""))
       .collect(Collectors.toSet());
@@ -94,37 +143,99 @@ public class ImouDeviceService extends ServiceInstance<ImouDeviceEntity> {
 
   @Override
   public void destroy(boolean forRestart, Exception ex) {
-    if (deviceStatusCheck != null) {
-      deviceStatusCheck.cancel();
+    if (!forRestart) {
+      snapshotStore.remove(deviceId);
+      alarmStore.remove(deviceId);
+      getApi().getLiveBindingPool().remove(deviceId);
     }
   }
 
   @Override
   @SneakyThrows
   public void initialize() {
-    snapshot.setCacheSec(entity.getImageCacheInterval());
+    alarmStore.setRetentionDays(deviceId, entity.getProject().getAlarmRetentionDays());
     createOrUpdateDeviceGroup();
     if (endpoints.isEmpty()) {
       createEndpoints();
     }
+  }
+
+  /**
+   * Apply device online status fetched by project-wide poller
+   */
+  public void updateStatus(@NotNull Status newStatus) {
+    if (statusEndpoint == null) {
+      return;
+    }
+    tryInitializeEndpoints(newStatus);
+    if (entity.getStatus() != newStatus) {
+      entity.setStatus(newStatus);
+    }
+    statusEndpoint.setValue(new StringType(newStatus.name()), true);
+  }
+
+  /**
+   * Apply alarm/deviceStatus message pushed by imou cloud
+   */
+  public void handlePushMessage(@NotNull ImouPushMessageDTO message) {
+    if (message.isStatusMessage()) {
+      Status status = message.getDeviceStatus();
+      if (status == null) {
+        log.warn("[{}]: Ignore imou {} message with unknown status: {}", entityID, message.getMsgType(), message.getStatus());
+      } else {
+        updateStatus(status);
+      }
+      return;
+    }
+    ImouDeviceEndpoint endpoint = endpoints.get(ENDPOINT_MOTION_ALARM);
+    if (endpoint != null) {
+      String date = message.getLocalDate();
+      if (StringUtils.isEmpty(date)) {
+        date = DATE_FORMAT.format(Instant.ofEpochSecond(message.getTime()));
+      }
+      endpoint.setValue(new StringType(date), true);
+      // push carries no alarm pictures, pull full records into local alarm store
+      context.bgp().builder("imou-alarm-sync-" + entityID).execute(this::syncAlarms);
+    }
+  }
 
-    if (statusEndpoint != null) {
-      this.deviceStatusCheck =
-        context.bgp().builder("imou-fetch-data-" + entityID)
-          .cancelOnError(false)
-          .intervalWithDelay(Duration.ofSeconds(entity.getFetchDataInterval()))
-          .execute(() -> {
-            if (!entity.getStatus().isOnline()) {
-              statusEndpoint.readValue();
-            } else {
-              for (ImouDeviceEndpoint endpoint : endpoints.values()) {
-                if (endpoint.getReader() != null) {
-                  endpoint.readValue();
-                }
-              }
-            }
-          });
+  /**
+   * Collect reads of endpoints which poll time came. Online devices poll every endpoint with it's own interval, sleeping/offline
+   * devices poll only own status with exponential backoff until they are back online. Invoked by project-wide poller which runs
+   * reads of all devices concurrently
+   *
+   * @param pushHealthy - skip endpoints that imou cloud pushes to us
+   */
+  public @NotNull List<Runnable> collectPollTasks(boolean pushHealthy) {
+    if (statusEndpoint == null) {
+      return List.of();
+    }
+    // sick device: do not spend threads and quota until breaker allows probe request
+    updateCircuitStatusMessage();
+    if (getApi().isDeviceCircuitOpen(deviceId)) {
+      return List.of();
+    }
+    long now = System.currentTimeMillis();
+    int fetchDataInterval = entity.getFetchDataInterval();
+    if (!entity.getStatus().isOnline()) {
+      if (now < nextOfflineAttemptTime) {
+        return List.of();
+      }
+      offlineBackoff = Math.min(offlineBackoff + 1, MAX_BACKOFF_EXPONENT);
+      nextOfflineAttemptTime = now + Math.min(MAX_OFFLINE_BACKOFF.toMillis(), (fetchDataInterval * 1000L) << offlineBackoff);
+      // other endpoints fail anyway while device is not reachable
+      return List.of(ImouParallelReader.limit(readPermits, statusEndpoint::tryReadValue));
     }
+    offlineBackoff = 0;
+    List<Runnable> tasks = new ArrayList<>();
+    for (ImouDeviceEndpoint endpoint : endpoints.values()) {
+      if (endpoint != statusEndpoint && endpoint.getReader() != null
+          && !(pushHealthy && PUSH_ENDPOINTS.contains(endpoint.getEndpointEntityID()))
+          && endpoint.claimPollIfDue(now, fetchDataInterval)) {
+        tasks.add(ImouParallelReader.limit(readPermits, () -> endpoint.poll(now, fetchDataInterval)));
+      }
+    }
+    return tasks;
   }
 
   private void createEndpoints() {
@@ -136,28 +247,51 @@ public class ImouDeviceService extends ServiceInstance<ImouDeviceEntity> {
   }
 
   public String getCallbackUrl() {
-    return api.getMessageCallback(deviceId).getCallbackUrl();
+    return getApi().getMessageCallback(deviceId).getCallbackUrl();
   }
 
   public void updateCallbackUrl(String callbackUrl) {
-    api.setMessageCallback(callbackUrl);
+    getApi().setMessageCallback(callbackUrl);
   }
 
-  public byte[] getSnapshot() {
-    return snapshot.getSnapshot(() -> {
-      new Thread(this::takeSnapshotSync).start();
-      return null;
-    });
+  /**
+   * @return cached snapshot of requested size without blocking. Refresh is fired in background if image missing or older than
+   * imageCacheInterval
+   */
+  public byte[] getSnapshot(@NotNull Variant variant) {
+    CachedSnapshot cached = snapshotStore.get(deviceId, variant);
+    if (cached == null || cached.isOlderThan(Duration.ofSeconds(entity.getImageCacheInterval()))) {
+      takeSnapshotAsync();
+    }
+    return cached == null ? null : cached.image();
   }
 
-  public void takeSnapshot() {
-    snapshot.setSnapshot(api.getSnapshot(deviceId));
+  /**
+   * @return fresh cached snapshot or capture new one
+   */
+  public byte[] getOrTakeSnapshot() {
+    CachedSnapshot cached = snapshotStore.get(deviceId);
+    if (cached == null || cached.isOlderThan(Duration.ofSeconds(entity.getImageCacheInterval()))) {
+      return takeSnapshot();
+    }
+    return cached.image();
   }
 
-  private void takeSnapshotSync() {
-    if (!snapshot.setSnapshot(api.getSnapshot(deviceId))) {
-      context.ui().updateItem(getEntity(), "snapshot", snapshot.getLatestSnapshot());
-    }
+  public byte[] takeSnapshot() {
+    byte[] image = getApi().getSnapshot(deviceId);
+    snapshotStore.putWithVariants(deviceId, image);
+    return image;
+  }
+
+  private void takeSnapshotAsync() {
+    getApi().getSnapshotAsync(deviceId).thenAccept(image -> {
+      snapshotStore.putWithVariants(deviceId, image);
+      CachedSnapshot cached = snapshotStore.get(deviceId, entity.getSnapshotVariant());
+      context.ui().updateItem(getEntity(), "snapshot", cached == null ? image : cached.image());
+    }).exceptionally(ex -> {
+      log.warn("[{}]: Unable to take snapshot: {}", entityID, ex.getMessage());
+      return null;
+    });
   }
 
   private void buildEndpoints(List<String> capabilities) {
@@ -166,17 +300,17 @@ public class ImouDeviceService extends ServiceInstance<ImouDeviceEntity> {
       ImouDeviceEndpoint endpoint = addEndpoint(switchEntry.getKey(), EndpointType.bool);
       endpoint.setInitialValue(OnOffType.OFF);
       endpoint.setReader(() -> {
-        ImouDeviceStatusDTO dto = api.request("getDeviceCameraStatus", deviceId, "enableType", endpoint.getEndpointEntityID(),
+        ImouDeviceStatusDTO dto = getApi().request("getDeviceCameraStatus", deviceId, "enableType", endpoint.getEndpointEntityID(),
           ImouDeviceStatusDTO.class);
         return OnOffType.of("on".equals(dto.getStatus()));
       });
       endpoint.setUpdateHandler(state -> {
-        api.setDeviceCameraStatus(deviceId, endpoint.getEndpointEntityID(), state.boolValue());
+        getApi().setDeviceCameraStatus(deviceId, endpoint.getEndpointEntityID(), state.boolValue());
         context.ui().toastr().success("ACTION.RESPONSE.SUCCESS");
       });
     }
 
-    Status status = api.getDeviceStatus(deviceId).getStatus();
+    Status status = getApi().getDeviceStatus(deviceId).getStatus();
     entity.setStatus(status);
 
     addStatusEndpoint(status);
@@ -206,19 +340,88 @@ public class ImouDeviceService extends ServiceInstance<ImouDeviceEntity> {
 
   private void addMotionAlarm(List<String> capabilities) {
     if (capabilities.remove("AlarmMD")) {
-      ImouDeviceEndpoint endpoint = addEndpoint("motionAlarm", EndpointType.bool);
+      ImouDeviceEndpoint endpoint = addEndpoint(ENDPOINT_MOTION_ALARM, EndpointType.bool);
       endpoint.setReader(() -> {
-        List<Alarm> alarms = api.getAlarmMessages(deviceId).getAlarms();
-        return new StringType(alarms.isEmpty() ? "-" : alarms.get(0).getLocalDate());
+        syncAlarms();
+        return new StringType(StringUtils.defaultIfEmpty(entity.getLastAlarmDate(), "-"));
       });
     }
   }
 
+  /**
+   * Fetch only alarms newer than persisted high-water mark. Cloud returns alarms newest first, so pages are walked through
+   * nextAlarmId cursor until already known alarm reached. New alarms are appended to local alarm store. If page limit reached
+   * first, cursor is persisted and next sync continues from it. High-water mark moves only when walk reached it, so older alarms
+   * are not skipped
+   *
+   * @return new alarms, newest first
+   */
+  public @NotNull List<Alarm> syncAlarms() {
+    // cloud calls and file IO inside: lock instead of synchronized, so virtual thread does not pin carrier
+    alarmSyncLock.lock();
+    try {
+      return syncAlarmsLocked();
+    } finally {
+      alarmSyncLock.unlock();
+    }
+  }
+
+  private @NotNull List<Alarm> syncAlarmsLocked() {
+    long lastTime = entity.getLastAlarmTime();
+    String lastId = entity.getLastAlarmId();
+    long beginTime = lastTime > 0 ? lastTime : Instant.now().minus(INITIAL_ALARM_WINDOW).getEpochSecond();
+    String cursor = StringUtils.defaultIfEmpty(entity.getAlarmSyncCursor(), "-1");
+    // resumed walk sees only older alarms, newest one was found by sync that started it
+    Alarm newest = entity.getPendingLastAlarm();
+    List<Alarm> newAlarms = new ArrayList<>();
+    boolean finished = false;
+    for (int page = 1; ; page++) {
+      ImouDeviceAlarmMessageDTO dto = getApi().getAlarmMessages(deviceId, beginTime, cursor, ImouAPI.ALARM_PAGE_SIZE);
+      List<Alarm> alarms = dto.getAlarms() == null ? List.of() : dto.getAlarms();
+      boolean caughtUp = false;
+      for (Alarm alarm : alarms) {
+        if (alarm.getTime() < lastTime || (alarm.getTime() == lastTime && Objects.equals(alarm.getAlarmId(), lastId))) {
+          caughtUp = true;
+          break;
+        }
+        newAlarms.add(alarm);
+      }
+      cursor = dto.getNextAlarmId();
+      if (caughtUp || alarms.size() < ImouAPI.ALARM_PAGE_SIZE || StringUtils.isEmpty(cursor) || "-1".equals(cursor)) {
+        finished = true;
+        break;
+      }
+      if (page == MAX_ALARM_PAGES) {
+        log.warn("[{}]: Alarm sync paused after {} pages. Continue on next sync", entityID, page);
+        break;
+      }
+    }
+    alarmStore.append(deviceId, newAlarms);
+    context.getBean(ImouAlarmPictureFetcher.class).enqueue(deviceId, newAlarms);
+    for (Alarm alarm : newAlarms) {
+      if (newest == null || alarm.getTime() > newest.getTime()) {
+        newest = alarm;
+      }
+    }
+    if (finished) {
+      if (newest != null) {
+        entity.setLastAlarm(newest);
+      }
+      entity.setAlarmSyncProgress(null, null);
+    } else {
+      entity.setAlarmSyncProgress(cursor, newest);
+    }
+    if (newest != null) {
+      context.db().save(entity, false);
+    }
+    return newAlarms;
+  }
+
   private void addBatteryEndpoint(List<String> capabilities) {
     if (capabilities.remove("Dormant")) {
       ImouDeviceEndpoint endpoint = addEndpoint("battery", EndpointType.number);
       endpoint.setReader(() -> {
-        ImouDevicePowerInfoDTO dto = api.request("getDevicePowerInfo", deviceId, ImouDevicePowerInfoDTO.class);
+        ImouDevicePowerInfoDTO dto = getApi().request("getDevicePowerInfo", deviceId, ImouDevicePowerInfoDTO.class);
         return new DecimalType(dto.getElectricitys().getElectric());
       });
     }
@@ -227,7 +430,7 @@ public class ImouDeviceService extends ServiceInstance<ImouDeviceEntity> {
   private void addCallbackUrlEndpoint() {
     ImouDeviceEndpoint endpoint = addEndpoint("callbackUrl", EndpointType.string);
     endpoint.setReader(() -> {
-      ImouDeviceCallbackUrlDTO dto = api.getMessageCallback(deviceId);
+      ImouDeviceCallbackUrlDTO dto = getApi().getMessageCallback(deviceId);
       if (dto.getStatus().equals("off")) {
         return new StringType("OFF");
       }
@@ -240,7 +443,7 @@ public class ImouDeviceService extends ServiceInstance<ImouDeviceEntity> {
       ImouDeviceEndpoint endpoint = addEndpoint("storageUsed", EndpointType.string);
       endpoint.setReader(() -> {
         try {
-          ImouSDCardStatusDTO status = api.getDeviceSDCardStatus(this.deviceId);
+          ImouSDCardStatusDTO status = getApi().getDeviceSDCardStatus(this.deviceId);
           return new StringType(status.toString());
         } catch (Exception ex) {
           return new StringType(ex.getMessage());
@@ -254,7 +457,7 @@ public class ImouDeviceService extends ServiceInstance<ImouDeviceEntity> {
     statusEndpoint.setRange(OptionModel.list(Status.set(ONLINE, OFFLINE, UNKNOWN, UPDATING, SLEEPING)));
     statusEndpoint.setInitialValue(new StringType(status.name()));
     statusEndpoint.setReader(() -> {
-      Status newStatus = api.getDeviceStatus(deviceId).getStatus();
+      Status newStatus = getApi().getDeviceStatus(deviceId).getStatus();
       tryInitializeEndpoints(newStatus);
       entity.setStatus(newStatus);
       return new StringType(newStatus.name());
@@ -267,13 +470,18 @@ public class ImouDeviceService extends ServiceInstance<ImouDeviceEntity> {
     if (!initialized && newStatus.isOnline()) {
       initialized = true;
       log.info("[{}]: Fetch device {} endpoint statuses", entityID, entity);
+      List<Runnable> tasks = new ArrayList<>();
       for (ImouDeviceEndpoint endpoint : endpoints.values()) {
         Runnable initializer = endpoint.getInitializer();
         if (initializer != null) {
-          initializer.run();
+          tasks.add(ImouParallelReader.limit(readPermits, initializer));
         } else if (endpoint.getReader() != null) {
-          endpoint.setInitialValue(endpoint.getReader().get());
+          Supplier<State> reader = endpoint.getReader();
+          tasks.add(ImouParallelReader.limit(readPermits, () -> endpoint.setInitialValue(reader.get())));
         }
+      }
+      ImouParallelReader.runAll(tasks, INITIALIZE_DEADLINE);
+      for (ImouDeviceEndpoint endpoint : endpoints.values()) {
         endpoint.getOrCreateVariable();
       }
     }
@@ -289,7 +497,7 @@ public class ImouDeviceService extends ServiceInstance<ImouDeviceEntity> {
 
   private void addRestartButton() {
     addTriggerEndpoint("restartDevice", "RESTART_DEVICE", state ->
-      api.restart(deviceId));
+      getApi().restart(deviceId));
   }
 
   private void addTriggerEndpoint(String endpointId, String confirmBtn, Consumer<State> updateHandler) {
@@ -325,9 +533,9 @@ public class ImouDeviceService extends ServiceInstance<ImouDeviceEntity> {
   private void addNightVisionModeEndpoint(List<String> capabilities) {
     if (capabilities.remove("NVM")) {
       ImouDeviceEndpoint deviceEndpoint = addEndpoint("nightVisionMode", EndpointType.select);
-      deviceEndpoint.setReader(() -> new StringType(api.getNightVisionMode(deviceId).getMode()));
+      deviceEndpoint.setReader(() -> new StringType(getApi().getNightVisionMode(deviceId).getMode()));
       deviceEndpoint.setInitializer(() -> {
-        ImouDeviceNightVisionModeDTO dto = api.getNightVisionMode(deviceId);
+        ImouDeviceNightVisionModeDTO dto = getApi().getNightVisionMode(deviceId);
         deviceEndpoint.setRange(OptionModel.list(dto.getModes()));
         deviceEndpoint.setInitialValue(new StringType(dto.getMode()));
       });
@@ -341,13 +549,28 @@ public class ImouDeviceService extends ServiceInstance<ImouDeviceEntity> {
     return models == null ? List.of() : models;
   }
 
+  /**
+   * Show device breaker state in status message. Message is touched only when breaker state changes
+   */
+  void updateCircuitStatusMessage() {
+    String message = getApi().getDeviceCircuitMessage(deviceId);
+    if (message != null) {
+      if (!message.equals(circuitStatusMessage)) {
+        setEntityStatus(entity.getStatus(), message);
+        circuitStatusMessage = message;
+      }
+    } else if (circuitStatusMessage != null) {
+      if (circuitStatusMessage.equals(entity.getStatusMessage())) {
+        setEntityStatus(entity.getStatus(), null);
+      }
+      circuitStatusMessage = null;
+    }
+  }
+
   private void setEntityStatus(@NotNull Status status, @Nullable String message) {
     if (entity.getStatus() != status || !Objects.equals(entity.getStatusMessage(), message)) {
       entity.setStatus(status, message);
-      ImouProjectEntity projectEntity = ImouAPI.getProjectEntity();
-      if (projectEntity != null) {
-        projectEntity.getService().updateNotificationBlock();
-      }
+      entity.getProject().optService().ifPresent(ImouProjectService::updateNotificationBlock);
     }
   }
 
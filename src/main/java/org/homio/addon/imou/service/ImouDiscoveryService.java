@@ -5,7 +5,10 @@ import lombok.extern.log4j.Log4j2;
 import org.homio.addon.imou.ImouDeviceEntity;
 import org.homio.addon.imou.ImouProjectEntity;
 import org.homio.addon.imou.internal.cloud.ImouAPI;
+import org.homio.addon.imou.internal.cloud.ImouRateLimiter.Priority;
 import org.homio.addon.imou.internal.cloud.dto.ImouDeviceDTO;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceDTO.ImouChannel;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceDTO.ImouChannel.ImouResolution;
 import org.homio.api.Context;
 import org.homio.api.service.discovery.ItemDiscoverySupport;
 import org.homio.hquery.ProgressBar;
@@ -16,11 +19,10 @@ import org.springframework.stereotype.Service;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import static org.homio.api.util.Constants.PRIMARY_DEVICE;
-
 @Log4j2
 @Service
 public class ImouDiscoveryService implements ItemDiscoverySupport {
@@ -35,7 +37,13 @@ public class ImouDiscoveryService implements ItemDiscoverySupport {
                                    .orElse("")
                                    .replaceAll("(..)(?!$)", "$1:");*/
 
-    boolean updated = entity.tryUpdateDeviceEntity(device);
+    long fingerprint = fingerprint(device);
+    if (fingerprint == entity.getDiscoveryFingerprint()) {
+      return false;
+    }
+    entity.tryUpdateDeviceEntity(device);
+    // persist fingerprint even if no field changed, so next scan skips device
+    entity.setDiscoveryFingerprint(fingerprint);
 
         /*DeviceSchema schema = api.getDeviceSchema(device.id, entity);
         Map<Integer, SchemaDp> schemaDps = new HashMap<>();
@@ -50,7 +58,45 @@ public class ImouDiscoveryService implements ItemDiscoverySupport {
             entity.setSchema(dps);
             updated = true;
         }*/
-    return updated;
+    return true;
+  }
+
+  /**
+   * Compact 64-bit hash of structural device fields that discovery applies to entity. Volatile channel state(online, cloud storage and
+   * alarm status) is maintained by polling and push, it's excluded so that state change doesn't rewrite entity on every scan
+   */
+  static long fingerprint(ImouDeviceDTO device) {
+    long hash = 1125899906842597L;
+    hash = mix(hash, device.deviceId);
+    hash = mix(hash, device.name);
+    hash = mix(hash, device.deviceCatalog);
+    hash = mix(hash, device.brand);
+    hash = mix(hash, device.deviceModel);
+    hash = mix(hash, device.ability);
+    hash = mix(hash, device.version);
+    hash = 31 * hash + device.channelNum;
+    hash = 31 * hash + (device.tlsEnable ? 1 : 0);
+    if (device.channels != null) {
+      for (ImouChannel channel : device.channels) {
+        hash = 31 * hash + channel.channelId;
+        hash = 31 * hash + (channel.shareStatus ? 1 : 0);
+        hash = mix(hash, channel.channelName);
+        hash = mix(hash, channel.channelAbility);
+        // channelPicUrl skipped: signed url differs on every request
+        if (channel.resolutions != null) {
+          for (ImouResolution resolution : channel.resolutions) {
+            hash = 31 * hash + resolution.streamType;
+            hash = 31 * hash + resolution.imageSize;
+            hash = mix(hash, resolution.name);
+          }
+        }
+      }
+    }
+    return hash;
+  }
+
+  private static long mix(long hash, String value) {
+    return 31 * hash + (value == null ? 0 : value.hashCode());
   }
 
   @Override
@@ -58,53 +104,86 @@ public class ImouDiscoveryService implements ItemDiscoverySupport {
     return "scan-imou-devices";
   }
 
+  /**
+   * Scan devices of all projects
+   */
   @Override
   public @Nullable DeviceScannerResult scan(@NotNull Context context, @NotNull ProgressBar progressBar) {
     DeviceScannerResult result = new DeviceScannerResult();
+    for (ImouProjectEntity project : context.db().findAll(ImouProjectEntity.class)) {
+      scan(context, project, progressBar, result);
+    }
+    return result;
+  }
+
+  /**
+   * Scan devices of single project. New device is assigned to that project, owner of existed device is kept
+   */
+  public void scan(@NotNull Context context, @NotNull ImouProjectEntity project, @NotNull ProgressBar progressBar,
+    @NotNull DeviceScannerResult result) {
     Map<String, ImouDeviceEntity> existedDevices =
       context.db().findAll(ImouDeviceEntity.class)
         .stream()
         .collect(Collectors.toMap(ImouDeviceEntity::getIeeeAddress, t -> t));
     try {
-      ImouProjectEntity imouProjectEntity = context.db().getRequire(ImouProjectEntity.class, PRIMARY_DEVICE);
-      Consumer<ImouDeviceDTO> deviceHandler = device -> {
-        ImouDeviceEntity deviceEntity = existedDevices.getOrDefault(device.deviceId, new ImouDeviceEntity());
-        if (updateImouDeviceEntity(device, imouProjectEntity.getService().getApi(), deviceEntity)) {
-          context.db().save(deviceEntity);
-          result.getNewCount().incrementAndGet();
-        } else {
-          result.getExistedCount().incrementAndGet();
+      ImouAPI api = project.getService().getApi();
+      Consumer<List<ImouDeviceDTO>> pageHandler = devices -> {
+        List<ImouDeviceEntity> changed = new ArrayList<>();
+        for (ImouDeviceDTO device : devices) {
+          ImouDeviceEntity deviceEntity = existedDevices.get(device.deviceId);
+          if (deviceEntity == null) {
+            deviceEntity = new ImouDeviceEntity();
+            updateImouDeviceEntity(device, api, deviceEntity);
+            // device shared between accounts stays with project that found it first, owner may be changed only by user
+            deviceEntity.setProjectID(project.getEntityID());
+            existedDevices.put(device.deviceId, deviceEntity);
+            changed.add(deviceEntity);
+            result.getNewCount().incrementAndGet();
+          } else {
+            if (updateImouDeviceEntity(device, api, deviceEntity)) {
+              changed.add(deviceEntity);
+            }
+            result.getExistedCount().incrementAndGet();
+          }
+        }
+        // save new/changed devices after page is handled, next page is already being fetched meanwhile
+        for (ImouDeviceEntity entity : changed) {
+          context.db().save(entity);
         }
       };
-      processDeviceResponse(List.of(), imouProjectEntity.getService(), 0, deviceHandler);
+      fetchDevices(api, progressBar, pageHandler);
     } catch (Exception ex) {
-      log.error("Error scan imou devices", ex);
+      log.error("Error scan imou devices of {}", project.getEntityID(), ex);
       context.ui().toastr().error(ex);
     }
-
-    return result;
   }
 
-  public List<ImouDeviceDTO> getDeviceList(Context context) {
+  public List<ImouDeviceDTO> getDeviceList(@NotNull ImouProjectEntity project) {
     List<ImouDeviceDTO> list = new ArrayList<>();
-    ImouProjectEntity entity = context.db().getRequire(ImouProjectEntity.class, PRIMARY_DEVICE);
-    processDeviceResponse(List.of(), entity.getService(), 0, list::add);
+    fetchDevices(project.getService().getApi(), (progress, message, error) -> {
+    }, list::addAll);
     return list;
   }
 
-  @SneakyThrows
-  private void processDeviceResponse(
-    List<ImouDeviceDTO> deviceList,
-    ImouProjectService imouProjectService,
-    int page,
-    Consumer<ImouDeviceDTO> deviceHandler) {
-    for (ImouDeviceDTO device : deviceList) {
-      deviceHandler.accept(device);
-    }
-    if (page == 0 || deviceList.size() == 100) {
-      int nextPage = page + 1;
-      List<ImouDeviceDTO> nextDeviceList = imouProjectService.getApi().getDeviceList(nextPage);
-      processDeviceResponse(nextDeviceList, imouProjectService, nextPage, deviceHandler);
+  /**
+   * Read all device pages. Next page request is sent before current page handled, so network and persistence overlap
+   */
+  private static void fetchDevices(ImouAPI api, ProgressBar progressBar, Consumer<List<ImouDeviceDTO>> pageHandler) {
+    CompletableFuture<List<ImouDeviceDTO>> nextPage = api.getDeviceListAsync(1, Priority.DISCOVERY);
+    int total = 0;
+    for (int page = 1; ; page++) {
+      List<ImouDeviceDTO> devices = ImouAPI.await(nextPage);
+      boolean lastPage = devices.size() < ImouAPI.DEVICE_PAGE_SIZE;
+      if (!lastPage) {
+        nextPage = api.getDeviceListAsync(page + 1, Priority.DISCOVERY);
+      }
+      total += devices.size();
+      // total count unknown until last page
+      progressBar.progress(lastPage ? 100 : 100 - 100D / (page + 1), "Imou devices: %d".formatted(total), false);
+      pageHandler.accept(devices);
+      if (lastPage) {
+        return;
+      }
     }
   }
 
@@ -0,0 +1,96 @@
+package org.homio.addon.imou.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs endpoint reads of one polling cycle concurrently on virtual threads. Every read is blocking https round trip, so cycle takes
+ * ~one RTT instead of N. Number of simultaneous reads limited globally and per device(see {@link #limit(Semaphore, Runnable)})
+ */
+@Log4j2
+public final class ImouParallelReader {
+
+  public static final int DEVICE_CONCURRENCY = 4;
+  private static final int GLOBAL_CONCURRENCY = 32;
+  private static final Semaphore GLOBAL_PERMITS = new Semaphore(GLOBAL_CONCURRENCY);
+  private static final ExecutorService EXECUTOR =
+    Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("imou-read-", 0).factory());
+
+  private ImouParallelReader() {
+  }
+
+  /**
+   * Stop read threads. Called once when addon is unloaded
+   */
+  public static void shutdown() {
+    EXECUTOR.shutdownNow();
+  }
+
+  /**
+   * Wrap task to hold device permit while running
+   */
+  public static @NotNull Runnable limit(@NotNull Semaphore devicePermits, @NotNull Runnable task) {
+    return () -> {
+      devicePermits.acquireUninterruptibly();
+      try {
+        task.run();
+      } finally {
+        devicePermits.release();
+      }
+    };
+  }
+
+  /**
+   * Run all tasks and wait until they finish or deadline expires. Tasks that not finished in time are cancelled. Interrupt aborts
+   * imou request the task waits for(see ImouAPI#await)
+   *
+   * @return number of tasks that not finished before deadline
+   */
+  public static int runAll(@NotNull List<Runnable> tasks, @NotNull Duration deadline) {
+    if (tasks.isEmpty()) {
+      return 0;
+    }
+    List<Future<?>> futures = new ArrayList<>(tasks.size());
+    for (Runnable task : tasks) {
+      futures.add(EXECUTOR.submit(() -> {
+        GLOBAL_PERMITS.acquireUninterruptibly();
+        try {
+          task.run();
+        } finally {
+          GLOBAL_PERMITS.release();
+        }
+      }));
+    }
+    long deadlineTime = System.nanoTime() + deadline.toNanos();
+    int timedOut = 0;
+    for (Future<?> future : futures) {
+      try {
+        future.get(Math.max(0, deadlineTime - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException ex) {
+        future.cancel(true);
+        timedOut++;
+      } catch (ExecutionException ex) {
+        log.warn("Imou endpoint read failed: {}", ex.getCause().getMessage());
+      } catch (InterruptedException ex) {
+        futures.forEach(f -> f.cancel(true));
+        Thread.currentThread().interrupt();
+        return futures.size();
+      }
+    }
+    if (timedOut > 0) {
+      log.warn("{} imou endpoint reads not finished within {}s and were cancelled", timedOut, deadline.toSeconds());
+    }
+    return timedOut;
+  }
+}
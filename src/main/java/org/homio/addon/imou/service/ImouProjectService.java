@@ -2,16 +2,44 @@ package org.homio.addon.imou.service;
 
 import lombok.Getter;
 import lombok.SneakyThrows;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.EnumUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.homio.addon.imou.ImouDeviceEntity;
 import org.homio.addon.imou.ImouProjectEntity;
+import org.homio.addon.imou.ImouProjectEntity.DataCenter;
 import org.homio.addon.imou.internal.cloud.ImouAPI;
+import org.homio.addon.imou.internal.cloud.ImouAPI.CameraProfile;
+import org.homio.addon.imou.internal.cloud.ImouAPI.ImouApiException;
 import org.homio.addon.imou.internal.cloud.ImouAPI.ImouApiNotReadyException;
+import org.homio.addon.imou.internal.cloud.ImouCircuitBreaker;
+import org.homio.addon.imou.internal.cloud.ImouDataCenterProbe;
+import org.homio.addon.imou.internal.cloud.ImouHttpClient;
+import org.homio.addon.imou.internal.cloud.ImouLiveBindingPool.Lease;
+import org.homio.addon.imou.internal.cloud.ImouRateLimiter.Priority;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceDTO;
+import org.homio.addon.imou.internal.cloud.dto.ImouPushMessageDTO;
+import org.homio.addon.imou.internal.push.ImouPushReceiver;
+import org.homio.addon.imou.internal.relay.ImouHlsRelay;
+import org.homio.addon.imou.internal.relay.ImouHlsRelay.Upstream;
 import org.homio.api.Context;
+import org.homio.api.ContextBGP.ThreadContext;
 import org.homio.api.model.Icon;
+import org.homio.api.model.Status;
 import org.homio.api.service.EntityService.ServiceInstance;
+import org.homio.api.service.discovery.ItemDiscoverySupport.DeviceScannerResult;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.net.InetAddress;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.homio.addon.imou.ImouEntrypoint.IMOU_COLOR;
 import static org.homio.addon.imou.ImouEntrypoint.IMOU_ICON;
@@ -19,31 +47,348 @@ import static org.homio.addon.imou.ImouEntrypoint.IMOU_ICON;
 @Getter
 public class ImouProjectService extends ServiceInstance<ImouProjectEntity> {
 
+  private static final Duration PUSH_STATUS_RESYNC_INTERVAL = Duration.ofMinutes(15);
+  private static final Duration DATA_CENTER_PROBE_INTERVAL = Duration.ofMinutes(1);
+
   private final ImouAPI api;
+  private final ImouPushReceiver pushReceiver;
+  private final ImouHlsRelay hlsRelay;
+  private final ImouDataCenterProbe dataCenterProbe = ImouDataCenterProbe.shared();
+  // data centers that rejected project credentials. Account lives in one data center, fallback never goes to these
+  private final Set<DataCenter> foreignDataCenters = ConcurrentHashMap.newKeySet();
+  private ThreadContext<Void> devicePoller;
+  private ThreadContext<Void> dataCenterProber;
+  private long lastStatusSyncTime;
+  // status message set by data center breaker. Other errors(login, deviceList) are not cleared by breaker
+  private @Nullable String circuitStatusMessage;
+  // settings currently in effect, to apply only changed ones on entity update. Null until started by initialize
+  private @Nullable DataCenter appliedDataCenter;
+  private @Nullable String appliedPushConfig;
+  private @Nullable String appliedRelayConfig;
+  private int appliedPollInterval;
 
   @SneakyThrows
   public ImouProjectService(@NotNull Context context, ImouProjectEntity entity) {
     super(context, entity, true, "Imou project");
-    this.api = context.getBean(ImouAPI.class);
+    this.api = new ImouAPI();
+    String secret = DigestUtils.sha256Hex(entity.getAppUID() + ":" + entity.getAppSecret().asString()).substring(0, 32);
+    this.pushReceiver = new ImouPushReceiver(secret, this::handlePushMessage);
+    // own secret: relay url is handed to viewers and must not grant push access
+    String relaySecret = DigestUtils.sha256Hex("relay:" + entity.getAppUID() + ":" + entity.getAppSecret().asString()).substring(0, 32);
+    this.hlsRelay = new ImouHlsRelay(relaySecret, this::resolveRelayUpstream);
   }
 
   public void initialize() {
-    ImouAPI.setProjectEntity(entity);
+    api.setProjectEntity(entity);
+    // credentials may be changed
+    api.logout();
+    if (appliedDataCenter != null && appliedDataCenter != entity.getDataCenter()) {
+      ImouHttpClient.release(appliedDataCenter, entityID);
+    }
+    appliedDataCenter = entity.getDataCenter();
+    // configured data center or credentials may be changed, start from them again
+    useFallbackDataCenter(null);
+    foreignDataCenters.clear();
+    // devices cache project api
+    getDeviceServices().values().forEach(ImouDeviceService::resetApi);
+    applyStoreSettings();
+    startDataCenterProbe();
     try {
       testService();
       entity.setStatusOnline();
       // fire device discovery
-      context.getBean(ImouDiscoveryService.class).scan(context, (progress, message, error) -> {
-      });
+      context.getBean(ImouDiscoveryService.class).scan(context, entity, (progress, message, error) -> {
+      }, new DeviceScannerResult());
+      startPushReceiver();
+      startHlsRelay();
+      startDevicePoller();
     } catch (ImouApiNotReadyException te) {
       scheduleInitialize();
     }
   }
 
+  /**
+   * Connection identity(see {@link ImouProjectEntity#getEntityServiceHashCode()}) change re-initializes service. Other settings are
+   * applied here without dropping token, push registration or live streams
+   */
+  @Override
+  public void entityUpdated(@NotNull ImouProjectEntity newEntity) {
+    super.entityUpdated(newEntity);
+    api.setProjectEntity(newEntity);
+    applyStoreSettings();
+    if (appliedPushConfig != null && !appliedPushConfig.equals(getPushConfig())) {
+      startPushReceiver();
+    }
+    if (appliedRelayConfig != null && !appliedRelayConfig.equals(getRelayConfig())) {
+      startHlsRelay();
+    }
+    if (devicePoller != null && appliedPollInterval != entity.getStatusPollInterval()) {
+      startDevicePoller();
+    }
+  }
+
+  /**
+   * Snapshot and alarm stores are shared by all projects, every project sets own share of them
+   */
+  private void applyStoreSettings() {
+    context.getBean(ImouSnapshotStore.class).setMemoryBudget(entityID, entity.getSnapshotCacheSize());
+    ImouAlarmStore alarmStore = context.getBean(ImouAlarmStore.class);
+    for (ImouDeviceEntity device : getDevices()) {
+      alarmStore.setRetentionDays(device.getIeeeAddress(), entity.getAlarmRetentionDays());
+    }
+  }
+
+  /**
+   * Single poller for all project devices. Fetch online status for whole fleet using paged deviceList and fan out result to devices
+   */
+  private void startDevicePoller() {
+    if (devicePoller != null) {
+      devicePoller.cancel();
+    }
+    appliedPollInterval = entity.getStatusPollInterval();
+    devicePoller = context.bgp().builder("imou-fetch-data-" + entityID)
+      .cancelOnError(false)
+      .intervalWithDelay(Duration.ofSeconds(appliedPollInterval))
+      .execute(this::pollDevices);
+  }
+
+  /**
+   * Probe runs even if project is not online yet, so user sees which data center is reachable
+   */
+  private void startDataCenterProbe() {
+    if (dataCenterProber != null) {
+      dataCenterProber.cancel();
+    }
+    dataCenterProber = context.bgp().builder("imou-dc-probe-" + entityID)
+      .cancelOnError(false)
+      .interval(DATA_CENTER_PROBE_INTERVAL)
+      .execute(() -> {
+        // probe is shared by projects, slightly shorter interval so one of them always finds it due
+        dataCenterProbe.probeAllIfDue(DATA_CENTER_PROBE_INTERVAL.minusSeconds(5));
+        failoverDataCenterIfNeed();
+      });
+  }
+
+  /**
+   * Fall back to fastest reachable data center only while configured one stopped answering, and return as soon as it answers again.
+   * Fallback is never stored in project. It's used only if project credentials are accepted there, because account data lives in
+   * the data center it was registered in
+   */
+  private void failoverDataCenterIfNeed() {
+    DataCenter configured = entity.getDataCenter();
+    DataCenter fallback = api.getFallbackDataCenter();
+    DataCenter target = entity.isDataCenterFailover()
+      ? dataCenterProbe.getFailoverTarget(configured, fallback, foreignDataCenters) : configured;
+    if (target == getActiveDataCenter()) {
+      return;
+    }
+    if (target == configured) {
+      log.info("[{}]: Imou data center {} is used again", entityID, configured);
+      useFallbackDataCenter(null);
+      return;
+    }
+    useFallbackDataCenter(target);
+    try {
+      api.login();
+      log.warn("[{}]: Imou data center {} unreachable. Fall back to {}", entityID, configured, target);
+    } catch (ImouApiException ex) {
+      log.warn("[{}]: Imou data center {} rejected project credentials: {}", entityID, target, ex.getMessage());
+      foreignDataCenters.add(target);
+      useFallbackDataCenter(fallback);
+    } catch (Exception ex) {
+      log.warn("[{}]: Unable to fall back to imou data center {}: {}", entityID, target, ex.getMessage());
+      useFallbackDataCenter(fallback);
+    }
+  }
+
+  private void useFallbackDataCenter(@Nullable DataCenter dataCenter) {
+    DataCenter previous = api.getFallbackDataCenter();
+    api.setFallbackDataCenter(dataCenter);
+    if (previous != null && previous != dataCenter) {
+      ImouHttpClient.release(previous, entityID);
+    }
+  }
+
+  /**
+   * @return data center project requests are sent to. Differs from configured one only during fallback
+   */
+  public @NotNull DataCenter getActiveDataCenter() {
+    return Objects.requireNonNullElse(api.getFallbackDataCenter(), entity.getDataCenter());
+  }
+
+  public @NotNull String getDataCenterStats() {
+    String stats = dataCenterProbe.getStats(getActiveDataCenter());
+    DataCenter fallback = api.getFallbackDataCenter();
+    return fallback == null ? stats : "Fallback from %s. %s".formatted(entity.getDataCenter(), stats);
+  }
+
+  private void pollDevices() {
+    Map<String, ImouDeviceService> services = getDeviceServices();
+    if (services.isEmpty() || isDataCenterCircuitOpen()) {
+      return;
+    }
+    // idle push is probed, unhealthy push falls back to polling of pushed endpoints and frequent status sync
+    pushReceiver.probeIfIdle();
+    boolean pushHealthy = pushReceiver.isHealthy();
+    long now = System.currentTimeMillis();
+    // statuses are pushed by cloud. Re-sync them rarely in case some messages were lost
+    if (!pushHealthy || now - lastStatusSyncTime >= PUSH_STATUS_RESYNC_INTERVAL.toMillis()) {
+      lastStatusSyncTime = now;
+      fetchDeviceStatuses(services);
+    }
+    List<Runnable> tasks = new ArrayList<>();
+    for (ImouDeviceService service : services.values()) {
+      tasks.addAll(service.collectPollTasks(pushHealthy));
+    }
+    ImouParallelReader.runAll(tasks, Duration.ofSeconds(entity.getStatusPollInterval()));
+  }
+
+  private void fetchDeviceStatuses(Map<String, ImouDeviceService> services) {
+    for (int page = 1; ; page++) {
+      List<ImouDeviceDTO> devices = api.getDeviceList(page, Priority.BACKGROUND);
+      for (ImouDeviceDTO device : devices) {
+        ImouDeviceService service = services.get(device.deviceId);
+        if (service != null) {
+          service.updateStatus(device.getOnlineStatus());
+          // same page carries full device description, apply changes without separate discovery scan
+          if (ImouDiscoveryService.updateImouDeviceEntity(device, api, service.getEntity())) {
+            context.db().save(service.getEntity());
+          }
+        }
+      }
+      if (devices.size() < ImouAPI.DEVICE_PAGE_SIZE) {
+        break;
+      }
+    }
+  }
+
+  private boolean isDataCenterCircuitOpen() {
+    ImouCircuitBreaker breaker = ImouHttpClient.get(getActiveDataCenter()).getCircuitBreaker();
+    String message = breaker.getStatusMessage();
+    if (message != null) {
+      entity.setStatus(Status.ERROR, message);
+      circuitStatusMessage = message;
+    } else if (circuitStatusMessage != null) {
+      if (entity.getStatus() == Status.ERROR && circuitStatusMessage.equals(entity.getStatusMessage())) {
+        entity.setStatusOnline();
+      }
+      circuitStatusMessage = null;
+    }
+    return breaker.isRejecting();
+  }
+
+  private Map<String, ImouDeviceService> getDeviceServices() {
+    Map<String, ImouDeviceService> services = new HashMap<>();
+    for (ImouDeviceEntity device : getDevices()) {
+      device.optService().ifPresent(service -> services.put(service.getDeviceId(), service));
+    }
+    return services;
+  }
+
+  /**
+   * @return devices owned by this project
+   */
+  public List<ImouDeviceEntity> getDevices() {
+    return context.db().findAll(ImouDeviceEntity.class).stream()
+      .filter(device -> device.getProjectID().equals(entityID))
+      .toList();
+  }
+
+  /**
+   * Start embedded http server for imou alarm/deviceStatus callbacks and register it's url in cloud
+   */
+  private void startPushReceiver() {
+    pushReceiver.stop();
+    appliedPushConfig = getPushConfig();
+    String pushCallbackHost = entity.getPushCallbackHost();
+    if (entity.getPushPort() <= 0 || StringUtils.isEmpty(pushCallbackHost)) {
+      return;
+    }
+    try {
+      pushReceiver.start(entity.getPushPort());
+      String callbackUrl = StringUtils.removeEnd(pushCallbackHost, "/") + pushReceiver.getCallbackPath();
+      api.setMessageCallback(callbackUrl);
+      pushReceiver.register(callbackUrl);
+      pushReceiver.probeIfIdle();
+    } catch (Exception ex) {
+      log.error("[{}]: Unable to start imou push receiver", entityID, ex);
+      pushReceiver.stop();
+      entity.setStatus(Status.ONLINE, "Push: " + ex.getMessage());
+    }
+  }
+
+  /**
+   * @return local relay playlist url of device stream or null if relay disabled
+   */
+  @SneakyThrows
+  public @Nullable String getRelayUrl(@NotNull String deviceId, @NotNull CameraProfile profile) {
+    if (!hlsRelay.isRunning()) {
+      return null;
+    }
+    String host = StringUtils.defaultIfEmpty(entity.getRelayHost(), InetAddress.getLocalHost().getHostAddress());
+    return "http://%s:%d%s".formatted(host, hlsRelay.getPort(), hlsRelay.getPlaylistPath(deviceId + "_" + profile));
+  }
+
+  private void startHlsRelay() {
+    hlsRelay.stop();
+    appliedRelayConfig = getRelayConfig();
+    if (entity.getRelayPort() <= 0) {
+      return;
+    }
+    try {
+      hlsRelay.start(entity.getRelayPort());
+    } catch (Exception ex) {
+      log.error("[{}]: Unable to start imou hls relay", entityID, ex);
+      entity.setStatus(Status.ONLINE, "Relay: " + ex.getMessage());
+    }
+  }
+
+  private String getPushConfig() {
+    return entity.getPushPort() + "|" + entity.getPushCallbackHost();
+  }
+
+  // relay host is read on every url request, only port requires restart
+  private String getRelayConfig() {
+    return String.valueOf(entity.getRelayPort());
+  }
+
+  /**
+   * Relay stream key is deviceId_PROFILE. Relay holds live binding lease while it pulls stream
+   */
+  private @Nullable Upstream resolveRelayUpstream(String streamKey) {
+    String deviceId = StringUtils.substringBeforeLast(streamKey, "_");
+    CameraProfile profile = EnumUtils.getEnum(CameraProfile.class, StringUtils.substringAfterLast(streamKey, "_"));
+    if (profile == null || !getDeviceServices().containsKey(deviceId)) {
+      return null;
+    }
+    Lease lease = ImouAPI.await(api.getLiveBindingPool().acquire(deviceId, profile));
+    return new Upstream() {
+      @Override
+      public String getPlaylistUrl() {
+        return lease.getHls();
+      }
+
+      @Override
+      public void close() {
+        lease.close();
+      }
+    };
+  }
+
+  private boolean handlePushMessage(ImouPushMessageDTO message) {
+    for (ImouDeviceEntity device : getDevices()) {
+      if (message.getDid().equals(device.getIeeeAddress())) {
+        device.optService().ifPresent(service -> service.handlePushMessage(message));
+        return true;
+      }
+    }
+    return false;
+  }
+
   public void updateNotificationBlock() {
     context.ui().notification().addBlock(entityID, "Imou", new Icon(IMOU_ICON, IMOU_COLOR), builder -> {
       builder.setStatus(entity.getStatus()).linkToEntity(entity);
-      builder.setDevices(context.db().findAll(ImouDeviceEntity.class));
+      builder.setDevices(getDevices());
     });
   }
 
@@ -57,6 +402,23 @@ public class ImouProjectService extends ServiceInstance<ImouProjectEntity> {
 
   @Override
   public void destroy(boolean forRestart, Exception ex) {
+    pushReceiver.stop();
+    if (forRestart) {
+      hlsRelay.stop();
+    } else {
+      hlsRelay.close();
+    }
+    if (devicePoller != null) {
+      devicePoller.cancel();
+    }
+    if (dataCenterProber != null) {
+      dataCenterProber.cancel();
+    }
+    if (!forRestart) {
+      context.getBean(ImouSnapshotStore.class).removeMemoryBudget(entityID);
+      useFallbackDataCenter(null);
+      ImouHttpClient.release(entity.getDataCenter(), entityID);
+    }
   }
 
   private void scheduleInitialize() {
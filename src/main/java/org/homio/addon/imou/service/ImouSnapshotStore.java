@@ -0,0 +1,438 @@
+package org.homio.addon.imou.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.homio.api.util.CommonUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Snapshot cache shared by all imou devices. Keeps most recently used images on heap within byte budget, evicted images spill to
+ * files in addon data directory so they stay out of heap and are dropped from disk in LRU order as well. Snapshots are few hundred
+ * Kb, so disk tier reads whole file instead of mapping it. Each image may have downscaled
+ * variants(see {@link Variant}) stored under own keys.
+ */
+@Log4j2
+@Service
+public class ImouSnapshotStore {
+
+  public static final int DEFAULT_MEMORY_BUDGET_MB = 16;
+  // disk tier may hold this times more bytes than heap tier
+  private static final int DISK_BUDGET_FACTOR = 8;
+
+  private final Map<String, CachedSnapshot> memory = new LinkedHashMap<>(16, 0.75f, true);
+  // evicted from heap, disk write in progress. Still served from heap until write finished
+  private final Map<String, CachedSnapshot> spilling = new HashMap<>();
+  private final Map<String, DiskSnapshot> disk = new LinkedHashMap<>(16, 0.75f, true);
+  private final LongAdder memoryHits = new LongAdder();
+  private final LongAdder diskHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final AtomicLong fileSequence = new AtomicLong();
+  // heap budget share of every project, store is shared so effective budget is their sum
+  private final Map<String, Long> projectBudgets = new HashMap<>();
+  private long memoryBudget = DEFAULT_MEMORY_BUDGET_MB * 1024L * 1024;
+  private long memoryBytes;
+  private long diskBytes;
+  private @Nullable Path directory;
+
+  /**
+   * Set heap budget share of project. Order in which projects set their share doesn't matter
+   */
+  public void setMemoryBudget(@NotNull String projectId, int megabytes) {
+    updateBudget(budgets -> budgets.put(projectId, Math.max(1, megabytes) * 1024L * 1024));
+  }
+
+  public void removeMemoryBudget(@NotNull String projectId) {
+    updateBudget(budgets -> budgets.remove(projectId));
+  }
+
+  public void put(@NotNull String key, byte[] image) {
+    if (image == null || image.length == 0) {
+      return;
+    }
+    CachedSnapshot snapshot = new CachedSnapshot(image, System.currentTimeMillis());
+    Pending pending = new Pending();
+    synchronized (this) {
+      removeInternal(key, pending);
+      memory.put(key, snapshot);
+      memoryBytes += image.length;
+      evict(pending);
+    }
+    flush(pending);
+  }
+
+  /**
+   * Store original image and it's downscaled variants. Variants are created once here, so readers never resize
+   */
+  public void putWithVariants(@NotNull String key, byte[] image) {
+    put(key, image);
+    BufferedImage source = readImage(image);
+    for (Variant variant : Variant.values()) {
+      if (variant == Variant.ORIGINAL) {
+        continue;
+      }
+      String variantKey = variant.getKey(key);
+      if (source == null || source.getWidth() <= variant.width) {
+        // original is small enough, get(...) falls back to it
+        removeKey(variantKey);
+      } else {
+        put(variantKey, scale(source, variant.width));
+      }
+    }
+  }
+
+  /**
+   * @return requested variant or next bigger one that exists
+   */
+  public @Nullable CachedSnapshot get(@NotNull String key, @NotNull Variant variant) {
+    Variant[] variants = Variant.values();
+    for (int i = variant.ordinal(); i < variants.length; i++) {
+      CachedSnapshot snapshot = lookup(variants[i].getKey(key));
+      if (snapshot != null) {
+        return snapshot;
+      }
+    }
+    // whole fallback chain is one lookup
+    misses.increment();
+    return null;
+  }
+
+  public @Nullable CachedSnapshot get(@NotNull String key) {
+    CachedSnapshot snapshot = lookup(key);
+    if (snapshot == null) {
+      misses.increment();
+    }
+    return snapshot;
+  }
+
+  public void remove(@NotNull String key) {
+    Pending pending = new Pending();
+    synchronized (this) {
+      for (Variant variant : Variant.values()) {
+        removeInternal(variant.getKey(key), pending);
+      }
+    }
+    flush(pending);
+  }
+
+  /**
+   * Drop both tiers. Disk files are deleted once readers that copying them finished, directory itself is removed as well
+   */
+  @PreDestroy
+  public void close() {
+    List<DiskSnapshot> release;
+    Path snapshotDirectory;
+    synchronized (this) {
+      snapshotDirectory = directory;
+      directory = null;
+      release = new ArrayList<>(disk.values());
+      disk.clear();
+      memory.clear();
+      // spills in progress see missing entry and release own file
+      spilling.clear();
+      memoryBytes = 0;
+      diskBytes = 0;
+    }
+    release.forEach(DiskSnapshot::release);
+    if (snapshotDirectory != null) {
+      try {
+        Files.deleteIfExists(snapshotDirectory);
+      } catch (IOException ex) {
+        // file still read by someone, directory is cleaned on next start
+        log.debug("Unable to delete imou snapshot directory {}: {}", snapshotDirectory, ex.getMessage());
+      }
+    }
+  }
+
+  public synchronized @NotNull String getStats() {
+    return "Heap: %d items, %dKb/%dKb. Disk: %d items, %dKb. Hits: %d/%d. Misses: %d. Evictions: %d".formatted(
+      memory.size() + spilling.size(), memoryBytes / 1024, memoryBudget / 1024, disk.size(), diskBytes / 1024,
+      memoryHits.sum(), diskHits.sum(), misses.sum(), evictions.sum());
+  }
+
+  private void updateBudget(Consumer<Map<String, Long>> update) {
+    Pending pending = new Pending();
+    synchronized (this) {
+      update.accept(projectBudgets);
+      long budget = projectBudgets.isEmpty() ? DEFAULT_MEMORY_BUDGET_MB * 1024L * 1024
+        : projectBudgets.values().stream().mapToLong(Long::longValue).sum();
+      if (budget == memoryBudget) {
+        return;
+      }
+      log.info("Imou snapshot cache budget changed to {}Mb", budget / 1024 / 1024);
+      memoryBudget = budget;
+      evict(pending);
+    }
+    flush(pending);
+  }
+
+  /**
+   * Find image in heap or disk tier without counting miss. Disk image is copied outside of lock and promoted back to heap
+   */
+  private @Nullable CachedSnapshot lookup(@NotNull String key) {
+    DiskSnapshot diskSnapshot;
+    synchronized (this) {
+      CachedSnapshot snapshot = memory.get(key);
+      if (snapshot == null) {
+        snapshot = spilling.get(key);
+      }
+      if (snapshot != null) {
+        memoryHits.increment();
+        return snapshot;
+      }
+      diskSnapshot = disk.get(key);
+      // reader reference keeps file on disk while copying even if snapshot is removed meanwhile
+      if (diskSnapshot == null || !diskSnapshot.retain()) {
+        return null;
+      }
+    }
+    byte[] image;
+    try {
+      image = Files.readAllBytes(diskSnapshot.file);
+    } catch (IOException ex) {
+      log.warn("Unable to read imou snapshot from disk: {}", ex.getMessage());
+      return null;
+    } finally {
+      diskSnapshot.release();
+    }
+    diskHits.increment();
+    CachedSnapshot snapshot = new CachedSnapshot(image, diskSnapshot.time);
+    Pending pending = new Pending();
+    synchronized (this) {
+      // promote back to heap unless newer image was put meanwhile
+      if (disk.get(key) == diskSnapshot) {
+        removeInternal(key, pending);
+        memory.put(key, snapshot);
+        memoryBytes += image.length;
+        evict(pending);
+      }
+    }
+    flush(pending);
+    return snapshot;
+  }
+
+  private void removeKey(String key) {
+    Pending pending = new Pending();
+    synchronized (this) {
+      removeInternal(key, pending);
+    }
+    flush(pending);
+  }
+
+  private static @Nullable BufferedImage readImage(byte[] image) {
+    try {
+      return image == null ? null : ImageIO.read(new ByteArrayInputStream(image));
+    } catch (IOException ex) {
+      log.warn("Unable to decode imou snapshot: {}", ex.getMessage());
+      return null;
+    }
+  }
+
+  @SneakyThrows
+  private static byte[] scale(BufferedImage source, int width) {
+    int height = Math.max(1, source.getHeight() * width / source.getWidth());
+    BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = target.createGraphics();
+    try {
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(source, 0, 0, width, height, null);
+    } finally {
+      graphics.dispose();
+    }
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ImageIO.write(target, "jpg", output);
+    return output.toByteArray();
+  }
+
+  private void removeInternal(String key, Pending pending) {
+    CachedSnapshot snapshot = memory.remove(key);
+    if (snapshot != null) {
+      memoryBytes -= snapshot.image.length;
+    }
+    // in-flight disk write is dropped once it finishes
+    spilling.remove(key);
+    DiskSnapshot diskSnapshot = disk.remove(key);
+    if (diskSnapshot != null) {
+      diskBytes -= diskSnapshot.size;
+      pending.release.add(diskSnapshot);
+    }
+  }
+
+  /**
+   * Select heap and disk victims under lock. Disk writes and deletes are done by {@link #flush(Pending)} after lock released
+   */
+  private void evict(Pending pending) {
+    Iterator<Map.Entry<String, CachedSnapshot>> memoryIterator = memory.entrySet().iterator();
+    while (memoryBytes > memoryBudget && memoryIterator.hasNext()) {
+      Map.Entry<String, CachedSnapshot> entry = memoryIterator.next();
+      memoryIterator.remove();
+      memoryBytes -= entry.getValue().image.length;
+      spilling.put(entry.getKey(), entry.getValue());
+      pending.spill.add(entry);
+    }
+    Iterator<DiskSnapshot> diskIterator = disk.values().iterator();
+    while (diskBytes > memoryBudget * DISK_BUDGET_FACTOR && diskIterator.hasNext()) {
+      DiskSnapshot diskSnapshot = diskIterator.next();
+      diskIterator.remove();
+      diskBytes -= diskSnapshot.size;
+      pending.release.add(diskSnapshot);
+      evictions.increment();
+    }
+  }
+
+  private void flush(Pending pending) {
+    while (!pending.isEmpty()) {
+      List<DiskSnapshot> release = new ArrayList<>(pending.release);
+      List<Map.Entry<String, CachedSnapshot>> spill = new ArrayList<>(pending.spill);
+      pending.release.clear();
+      pending.spill.clear();
+      release.forEach(DiskSnapshot::release);
+      for (Map.Entry<String, CachedSnapshot> entry : spill) {
+        DiskSnapshot diskSnapshot = writeToDisk(entry.getKey(), entry.getValue());
+        synchronized (this) {
+          // image may be removed or replaced while it was written
+          boolean current = spilling.remove(entry.getKey(), entry.getValue());
+          if (diskSnapshot == null) {
+            evictions.increment();
+          } else if (current) {
+            disk.put(entry.getKey(), diskSnapshot);
+            diskBytes += diskSnapshot.size;
+            evict(pending);
+          } else {
+            pending.release.add(diskSnapshot);
+          }
+        }
+      }
+    }
+  }
+
+  private @Nullable DiskSnapshot writeToDisk(String key, CachedSnapshot snapshot) {
+    try {
+      // unique name: previous file of same key may be still read by reader
+      Path file = getDirectory().resolve(DigestUtils.md5Hex(key) + "-" + fileSequence.incrementAndGet() + ".jpg");
+      Files.write(file, snapshot.image, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+      return new DiskSnapshot(file, snapshot.image.length, snapshot.time);
+    } catch (IOException ex) {
+      log.warn("Unable to move imou snapshot to disk: {}", ex.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Disk tier lives under addon data directory. Files left by previous run(crash, kill) are dropped on first use
+   */
+  @SneakyThrows
+  synchronized Path getDirectory() {
+    if (directory == null) {
+      Path snapshotDirectory = CommonUtils.getFilesPath().resolve("imou").resolve("snapshots");
+      if (Files.isDirectory(snapshotDirectory)) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(snapshotDirectory)) {
+          for (Path file : files) {
+            Files.deleteIfExists(file);
+          }
+        }
+      }
+      directory = Files.createDirectories(snapshotDirectory);
+    }
+    return directory;
+  }
+
+  /**
+   * Snapshot sizes ordered from smallest to original
+   */
+  @RequiredArgsConstructor
+  public enum Variant {
+    // sidebar compact mode, lists
+    THUMBNAIL(160),
+    // entity card
+    MEDIUM(640),
+    ORIGINAL(0);
+
+    private final int width;
+
+    private String getKey(String key) {
+      return this == ORIGINAL ? key : key + ":" + name();
+    }
+  }
+
+  public record CachedSnapshot(byte[] image, long time) {
+
+    public boolean isOlderThan(@NotNull Duration duration) {
+      return System.currentTimeMillis() - time > duration.toMillis();
+    }
+  }
+
+  /**
+   * Store holds one reference while snapshot is in disk tier, readers hold one while copying. Last release deletes file
+   */
+  @RequiredArgsConstructor
+  private static final class DiskSnapshot {
+
+    private final Path file;
+    private final int size;
+    private final long time;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private boolean retain() {
+      int current;
+      do {
+        current = references.get();
+        if (current == 0) {
+          return false;
+        }
+      } while (!references.compareAndSet(current, current + 1));
+      return true;
+    }
+
+    private void release() {
+      if (references.decrementAndGet() == 0) {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException ex) {
+          log.warn("Unable to delete imou snapshot file {}: {}", file, ex.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Disk work collected under lock
+   */
+  private static final class Pending {
+
+    private final List<Map.Entry<String, CachedSnapshot>> spill = new ArrayList<>();
+    private final List<DiskSnapshot> release = new ArrayList<>();
+
+    private boolean isEmpty() {
+      return spill.isEmpty() && release.isEmpty();
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package org.homio.addon.imou.internal.cloud;
+
+import org.homio.addon.imou.ImouProjectEntity;
+import org.homio.addon.imou.ImouProjectEntity.DataCenter;
+import org.homio.addon.imou.internal.cloud.ImouCircuitBreaker.ImouCircuitOpenException;
+import org.homio.api.util.SecureString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImouAPITest {
+
+  private final ImouCircuitBreaker breaker = ImouHttpClient.get(DataCenter.WesternAmerica).getCircuitBreaker();
+
+  @AfterEach
+  void closeBreaker() {
+    breaker.onSuccess();
+  }
+
+  @Test
+  void openDataCenterBreakerRejectsWithoutSpendingRateBudget() {
+    ImouAPI api = new ImouAPI();
+    api.setProjectEntity(project(DataCenter.WesternAmerica));
+    for (int i = 0; i < 5; i++) {
+      breaker.onFailure();
+    }
+    int quota = api.getRateLimiter().getRemainingDailyQuota();
+
+    assertThrows(ImouCircuitOpenException.class, api::login);
+    assertEquals(quota, api.getRateLimiter().getRemainingDailyQuota());
+  }
+
+  @Test
+  void fallbackDataCenterIsUsedWithoutChangingProject() {
+    ImouAPI api = new ImouAPI();
+    ImouProjectEntity project = project(DataCenter.CentralEurope);
+    api.setProjectEntity(project);
+    api.setFallbackDataCenter(DataCenter.WesternAmerica);
+    for (int i = 0; i < 5; i++) {
+      breaker.onFailure();
+    }
+
+    assertEquals(DataCenter.WesternAmerica, api.getDataCenter());
+    // request went to fallback data center, whose breaker is open
+    assertThrows(ImouCircuitOpenException.class, api::login);
+    verify(project, never()).setDataCenter(any());
+
+    api.setFallbackDataCenter(null);
+    assertEquals(DataCenter.CentralEurope, api.getDataCenter());
+  }
+
+  @Test
+  void interruptedAwaitCancelsRequest() throws Exception {
+    CompletableFuture<String> request = new CompletableFuture<>();
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    Thread waiter = Thread.ofVirtual().start(() -> {
+      try {
+        ImouAPI.await(request);
+      } catch (Throwable ex) {
+        error.set(ex);
+      }
+    });
+    Thread.sleep(50);
+    waiter.interrupt();
+    waiter.join(5000);
+
+    assertTrue(request.isCancelled());
+    assertTrue(error.get() instanceof CancellationException);
+  }
+
+  static ImouProjectEntity project(DataCenter dataCenter) {
+    ImouProjectEntity entity = mock(ImouProjectEntity.class);
+    when(entity.getEntityID()).thenReturn("test");
+    when(entity.getDataCenter()).thenReturn(dataCenter);
+    when(entity.getAppUID()).thenReturn("app");
+    when(entity.getAppSecret()).thenReturn(new SecureString("secret"));
+    when(entity.getMaxConnections()).thenReturn(ImouHttpClient.DEFAULT_MAX_CONNECTIONS);
+    when(entity.getRequestsPerSecond()).thenReturn(ImouRateLimiter.DEFAULT_RATE);
+    when(entity.getDailyQuota()).thenReturn(ImouRateLimiter.DEFAULT_DAILY_QUOTA);
+    return entity;
+  }
+}
@@ -0,0 +1,45 @@
+package org.homio.addon.imou.internal.cloud;
+
+import org.homio.addon.imou.internal.cloud.ImouAPI.ImouApiException;
+import org.homio.addon.imou.internal.cloud.ImouRateLimiter.ImouQuotaExceededException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImouApiMetricsTest {
+
+  @Test
+  void rateLimiterWaitIsKeptOutOfLatency() {
+    ImouApiMetrics metrics = new ImouApiMetrics();
+    ImouApiMetrics.Operation operation = metrics.start("deviceList");
+    // request waited 2s for permit, exchange itself took ~20ms
+    operation.recordWait(TimeUnit.SECONDS.toNanos(2));
+    operation.stop(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(20), null);
+
+    String text = metrics.toPrometheus("P1");
+    String labels = "project=\"P1\",path=\"deviceList\"";
+    assertTrue(text.contains("imou_api_request_seconds_bucket{" + labels + ",le=\"0.025\"} 1\n"), text);
+    assertTrue(text.contains("imou_api_rate_limit_wait_seconds_bucket{" + labels + ",le=\"1.0\"} 0\n"), text);
+    assertTrue(text.contains("imou_api_rate_limit_wait_seconds_bucket{" + labels + ",le=\"2.5\"} 1\n"), text);
+    assertTrue(text.contains("imou_api_rate_limit_wait_seconds_sum{" + labels + "} 2.000000\n"), text);
+    assertTrue(metrics.getStats().contains("wait p99 2"), metrics.getStats());
+  }
+
+  @Test
+  void rejectedRequestIsCountedWithoutLatency() {
+    ImouApiMetrics metrics = new ImouApiMetrics();
+    metrics.start("deviceList").stop(System.nanoTime() - TimeUnit.SECONDS.toNanos(5), new ImouQuotaExceededException("quota"));
+    metrics.start("deviceList").stop(System.nanoTime(), new ImouApiException("DV1007", "offline"));
+
+    String text = metrics.toPrometheus("P1");
+    String labels = "project=\"P1\",path=\"deviceList\"";
+    assertTrue(text.contains("imou_api_request_seconds_count{" + labels + "} 1\n"), text);
+    assertTrue(text.contains("imou_api_requests_total{" + labels + ",result=\"rejected\"} 1\n"), text);
+    assertTrue(text.contains("imou_api_errors_total{" + labels + ",code=\"DV1007\"} 1\n"), text);
+    assertTrue(text.contains("imou_api_in_flight{" + labels + "} 0\n"), text);
+    assertEquals(1, text.lines().filter(line -> line.startsWith("# TYPE imou_api_rate_limit_wait_seconds")).count());
+  }
+}
@@ -0,0 +1,209 @@
+package org.homio.addon.imou.internal.cloud;
+
+import org.homio.addon.imou.ImouProjectEntity.DataCenter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImouDataCenterProbeTest {
+
+  private final List<Endpoint> servers = new ArrayList<>();
+
+  @AfterEach
+  void stop() throws IOException {
+    for (Endpoint server : servers) {
+      server.close();
+    }
+  }
+
+  @Test
+  void fastestReachableDataCenterIsSuggested() throws Exception {
+    Endpoint fast = endpoint(0);
+    Endpoint slow = endpoint(150);
+    ImouDataCenterProbe probe = probe(Map.of(
+      DataCenter.CentralEurope, slow.getUrl(),
+      DataCenter.WesternAmerica, fast.getUrl(),
+      DataCenter.EasAsia, unreachableUrl()));
+
+    for (int i = 0; i < 3; i++) {
+      probe.probeAll();
+    }
+
+    assertTrue(probe.isUnreachable(DataCenter.EasAsia));
+    assertFalse(probe.isUnreachable(DataCenter.CentralEurope));
+    assertEquals(DataCenter.WesternAmerica, probe.getFastest());
+    assertEquals(DataCenter.CentralEurope, probe.getFastest(Set.of(DataCenter.WesternAmerica)));
+    String stats = probe.getStats(DataCenter.CentralEurope);
+    assertTrue(stats.contains("EasAsia: unreachable"), stats);
+    assertTrue(stats.endsWith("Suggested: WesternAmerica"), stats);
+    assertFalse(probe.getStats(DataCenter.WesternAmerica).contains("Suggested"));
+  }
+
+  @Test
+  void dataCenterIsUnreachableOnlyAfterFailuresInRow() throws Exception {
+    Endpoint endpoint = endpoint(0);
+    ImouDataCenterProbe probe = probe(Map.of(DataCenter.CentralEurope, endpoint.getUrl()));
+    endpoint.down = true;
+
+    probe.probe(DataCenter.CentralEurope);
+    probe.probe(DataCenter.CentralEurope);
+    assertFalse(probe.isUnreachable(DataCenter.CentralEurope));
+    assertNull(probe.getFastest());
+    probe.probe(DataCenter.CentralEurope);
+    assertTrue(probe.isUnreachable(DataCenter.CentralEurope));
+
+    // single answer makes it reachable again
+    endpoint.down = false;
+    probe.probe(DataCenter.CentralEurope);
+    assertFalse(probe.isUnreachable(DataCenter.CentralEurope));
+    assertEquals(DataCenter.CentralEurope, probe.getFastest());
+  }
+
+  @Test
+  void fallbackIsUsedOnlyWhileConfiguredDataCenterIsDown() throws Exception {
+    Endpoint configured = endpoint(0);
+    Endpoint fastest = endpoint(0);
+    Endpoint slower = endpoint(150);
+    ImouDataCenterProbe probe = probe(Map.of(
+      DataCenter.CentralEurope, configured.getUrl(),
+      DataCenter.WesternAmerica, fastest.getUrl(),
+      DataCenter.EasAsia, slower.getUrl()));
+    probe.probeAll();
+    assertEquals(DataCenter.CentralEurope, probe.getFailoverTarget(DataCenter.CentralEurope, null, Set.of()));
+
+    configured.down = true;
+    for (int i = 0; i < 3; i++) {
+      probe.probe(DataCenter.CentralEurope);
+    }
+    assertEquals(DataCenter.WesternAmerica, probe.getFailoverTarget(DataCenter.CentralEurope, null, Set.of()));
+    // account doesn't exist in fastest one
+    assertEquals(DataCenter.EasAsia,
+      probe.getFailoverTarget(DataCenter.CentralEurope, null, Set.of(DataCenter.WesternAmerica)));
+    // working fallback is kept even if it's not the fastest
+    assertEquals(DataCenter.EasAsia, probe.getFailoverTarget(DataCenter.CentralEurope, DataCenter.EasAsia, Set.of()));
+
+    // way back
+    configured.down = false;
+    probe.probe(DataCenter.CentralEurope);
+    assertEquals(DataCenter.CentralEurope, probe.getFailoverTarget(DataCenter.CentralEurope, DataCenter.EasAsia, Set.of()));
+  }
+
+  @Test
+  void concurrentCallersProbeOnce() throws Exception {
+    Endpoint endpoint = endpoint(100);
+    ImouDataCenterProbe probe = probe(Map.of(DataCenter.CentralEurope, endpoint.getUrl()));
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicInteger probed = new AtomicInteger();
+    List<Thread> projects = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      projects.add(Thread.ofVirtual().start(() -> {
+        try {
+          start.await();
+          if (probe.probeAllIfDue(Duration.ofMinutes(1))) {
+            probed.incrementAndGet();
+          }
+        } catch (InterruptedException ignore) {
+        }
+      }));
+    }
+    start.countDown();
+    for (Thread project : projects) {
+      project.join(5000);
+    }
+
+    assertEquals(1, probed.get());
+    assertEquals(1, endpoint.requests.get());
+    assertFalse(probe.probeAllIfDue(Duration.ofMinutes(1)));
+  }
+
+  private ImouDataCenterProbe probe(Map<DataCenter, String> endpoints) {
+    return new ImouDataCenterProbe(new EnumMap<>(endpoints));
+  }
+
+  private Endpoint endpoint(long delayMs) throws IOException {
+    Endpoint endpoint = new Endpoint(delayMs);
+    servers.add(endpoint);
+    return endpoint;
+  }
+
+  private static String unreachableUrl() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      return "http://127.0.0.1:" + socket.getLocalPort() + "/openapi/";
+    }
+  }
+
+  /**
+   * Stand-in for imou api. Rejects any request with 401 after injected delay, or drops connection without answer while down
+   */
+  private static class Endpoint implements AutoCloseable {
+
+    private final ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    private final AtomicInteger requests = new AtomicInteger();
+    private final long delayMs;
+    private volatile boolean down;
+
+    private Endpoint(long delayMs) throws IOException {
+      this.delayMs = delayMs;
+      Thread.ofVirtual().start(this::accept);
+    }
+
+    private String getUrl() {
+      return "http://127.0.0.1:" + server.getLocalPort() + "/openapi/";
+    }
+
+    private void accept() {
+      while (!server.isClosed()) {
+        try {
+          Socket socket = server.accept();
+          Thread.ofVirtual().start(() -> handle(socket));
+        } catch (IOException ignore) {
+        }
+      }
+    }
+
+    private void handle(Socket socket) {
+      try (socket) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        String line = reader.readLine();
+        while (line != null && !line.isEmpty()) {
+          line = reader.readLine();
+        }
+        requests.incrementAndGet();
+        if (down) {
+          return;
+        }
+        Thread.sleep(delayMs);
+        OutputStream output = socket.getOutputStream();
+        output.write("HTTP/1.1 401 Unauthorized\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        output.flush();
+      } catch (Exception ignore) {
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      server.close();
+    }
+  }
+}
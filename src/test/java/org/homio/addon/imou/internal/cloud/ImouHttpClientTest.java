@@ -0,0 +1,130 @@
+package org.homio.addon.imou.internal.cloud;
+
+import com.sun.net.httpserver.HttpServer;
+import org.homio.addon.imou.ImouProjectEntity.DataCenter;
+import org.homio.addon.imou.internal.cloud.ImouCircuitBreaker.State;
+import org.homio.addon.imou.service.ImouParallelReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImouHttpClientTest {
+
+  private static final DataCenter DATA_CENTER = DataCenter.EasAsia;
+
+  private final AtomicInteger received = new AtomicInteger();
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @AfterEach
+  void releaseProjects() {
+    ImouHttpClient.release(DATA_CENTER, "P1");
+    ImouHttpClient.release(DATA_CENTER, "P2");
+  }
+
+  @Test
+  void cancelledRequestsDoNotOpenDataCenterBreaker() throws Exception {
+    HttpServer server = hangingServer();
+    ImouHttpClient client = new ImouHttpClient(DATA_CENTER, "http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    try {
+      List<CompletableFuture<InputStream>> requests = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        requests.add(client.postAsync("deviceList", "{}"));
+      }
+      waitUntil(() -> received.get() == 6);
+      requests.forEach(request -> request.cancel(true));
+
+      waitUntil(() -> client.getStats().endsWith("Pool: 0/" + ImouHttpClient.DEFAULT_MAX_CONNECTIONS));
+      assertEquals(State.CLOSED, client.getCircuitBreaker().getState());
+      assertFalse(client.getCircuitBreaker().isRejecting());
+    } finally {
+      release.countDown();
+      client.close();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void deadlineExpiredReadsAreNotBreakerFailures() throws Exception {
+    HttpServer server = hangingServer();
+    ImouHttpClient client = new ImouHttpClient(DATA_CENTER, "http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    try {
+      List<Runnable> reads = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        reads.add(() -> ImouAPI.await(client.postAsync("deviceOnline", "{}")));
+      }
+
+      // poll deadline interrupts reads, interrupted await cancels http exchange
+      assertEquals(6, ImouParallelReader.runAll(reads, Duration.ofMillis(500)));
+
+      waitUntil(() -> client.getStats().endsWith("Pool: 0/" + ImouHttpClient.DEFAULT_MAX_CONNECTIONS));
+      assertEquals(State.CLOSED, client.getCircuitBreaker().getState());
+      // breaker has no failures counted: single real failure does not open it
+      client.getCircuitBreaker().onFailure();
+      assertEquals(State.CLOSED, client.getCircuitBreaker().getState());
+    } finally {
+      release.countDown();
+      client.close();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  void poolSizeIsBiggestProjectLimitRegardlessOfRequestOrder() {
+    ImouHttpClient client = ImouHttpClient.get(DATA_CENTER, "P1", 4);
+    assertSame(client, ImouHttpClient.get(DATA_CENTER, "P2", 16));
+    for (int i = 0; i < 3; i++) {
+      ImouHttpClient.get(DATA_CENTER, "P1", 4);
+      assertEquals(16, client.getMaxConnections());
+      ImouHttpClient.get(DATA_CENTER, "P2", 16);
+      assertEquals(16, client.getMaxConnections());
+    }
+    assertTrue(client.getStats().endsWith("Pool: 0/16"), client.getStats());
+
+    ImouHttpClient.release(DATA_CENTER, "P2");
+    assertEquals(4, client.getMaxConnections());
+    assertTrue(client.getStats().endsWith("Pool: 0/4"), client.getStats());
+  }
+
+  /**
+   * Stand-in for data center that accepts requests and never answers until released
+   */
+  private HttpServer hangingServer() throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    server.createContext("/", exchange -> {
+      received.incrementAndGet();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException ignore) {
+      }
+      exchange.close();
+    });
+    server.start();
+    return server;
+  }
+
+  private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.currentTimeMillis() < deadline, "Condition not met in time");
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package org.homio.addon.imou.internal.cloud;
+
+import org.homio.addon.imou.internal.cloud.ImouAPI.CameraProfile;
+import org.homio.addon.imou.internal.cloud.ImouLiveBindingPool.Lease;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceLiveBindDTO;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceLiveStreamsDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImouLiveBindingPoolTest {
+
+  private final ImouAPI api = mock(ImouAPI.class);
+  private final ImouLiveBindingPool pool = new ImouLiveBindingPool(api);
+
+  @Test
+  void bindingAdoptedFromCloudIsNotUnbound() {
+    ImouDeviceLiveStreamsDTO.Stream stream = new ImouDeviceLiveStreamsDTO.Stream();
+    stream.setStreamId(CameraProfile.HD.ordinal());
+    stream.setLiveToken("shared");
+    stream.setHls("https://cloud/shared.m3u8");
+    ImouDeviceLiveStreamsDTO info = new ImouDeviceLiveStreamsDTO();
+    info.setStreams(List.of(stream));
+    when(api.getLiveStreamInfoAsync("D1")).thenReturn(CompletableFuture.completedFuture(info));
+
+    try (Lease lease = pool.acquire("D1", CameraProfile.HD).join()) {
+      assertEquals("shared", lease.getLiveToken());
+    }
+    pool.remove("D1");
+
+    verify(api, never()).createBindDeviceLiveAsync(anyString(), any());
+    verify(api, never()).unbindLiveAsync(anyString(), anyString());
+  }
+
+  @Test
+  void bindingCreatedByPoolIsUnbound() {
+    when(api.getLiveStreamInfoAsync("D1")).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("no live")));
+    ImouDeviceLiveBindDTO.Stream stream = new ImouDeviceLiveBindDTO.Stream();
+    stream.setStreamId(CameraProfile.HD.ordinal());
+    stream.setHls("https://cloud/own.m3u8");
+    ImouDeviceLiveBindDTO dto = new ImouDeviceLiveBindDTO();
+    dto.setLiveToken("own");
+    dto.setStreams(List.of(stream));
+    when(api.createBindDeviceLiveAsync("D1", CameraProfile.HD)).thenReturn(CompletableFuture.completedFuture(dto));
+    when(api.unbindLiveAsync("D1", "own")).thenReturn(CompletableFuture.completedFuture(null));
+
+    try (Lease lease = pool.acquire("D1", CameraProfile.HD).join()) {
+      assertEquals("own", lease.getLiveToken());
+    }
+    pool.remove("D1");
+
+    verify(api, timeout(1000)).unbindLiveAsync("D1", "own");
+  }
+}
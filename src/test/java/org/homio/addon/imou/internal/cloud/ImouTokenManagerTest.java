@@ -0,0 +1,120 @@
+package org.homio.addon.imou.internal.cloud;
+
+import org.homio.addon.imou.internal.cloud.dto.ImouTokenDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ImouTokenManagerTest {
+
+  @Test
+  void concurrentRenewOfSameRejectedTokenLogsInOnce() throws Exception {
+    AtomicInteger logins = new AtomicInteger();
+    CountDownLatch loginStarted = new CountDownLatch(1);
+    CountDownLatch releaseLogin = new CountDownLatch(1);
+    ImouTokenManager manager = new ImouTokenManager(() -> {
+      int login = logins.incrementAndGet();
+      if (login == 2) {
+        loginStarted.countDown();
+        await(releaseLogin);
+      }
+      return token("token-" + login);
+    });
+    assertEquals("token-1", manager.getToken());
+
+    int callers = 16;
+    ExecutorService executor = Executors.newFixedThreadPool(callers);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < callers; i++) {
+        results.add(executor.submit(() -> manager.renew("token-1")));
+      }
+      loginStarted.await(5, TimeUnit.SECONDS);
+      // let part of callers arrive while login is in flight, others right after it finished
+      Thread.sleep(50);
+      releaseLogin.countDown();
+      for (Future<String> result : results) {
+        assertEquals("token-2", result.get(5, TimeUnit.SECONDS));
+      }
+      // late caller with stale token must not login again
+      assertEquals("token-2", manager.renew("token-1"));
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(2, logins.get());
+  }
+
+  @Test
+  void renewAfterFailedLoginRetries() {
+    AtomicInteger logins = new AtomicInteger();
+    ImouTokenManager manager = new ImouTokenManager(() -> {
+      if (logins.incrementAndGet() == 1) {
+        throw new IllegalStateException("cloud down");
+      }
+      return token("token-" + logins.get());
+    });
+    try {
+      manager.getToken();
+    } catch (IllegalStateException ignore) {
+    }
+    assertEquals("token-2", manager.renew("token-0"));
+  }
+
+  @Test
+  void loginStartedBeforeInvalidateDoesNotRestoreStaleToken() throws Exception {
+    AtomicInteger logins = new AtomicInteger();
+    CountDownLatch loginStarted = new CountDownLatch(1);
+    CountDownLatch releaseLogin = new CountDownLatch(1);
+    ImouTokenManager manager = new ImouTokenManager(() -> {
+      int login = logins.incrementAndGet();
+      if (login == 1) {
+        loginStarted.countDown();
+        await(releaseLogin);
+      }
+      return token("token-" + login);
+    });
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<String> staleCaller = executor.submit(manager::getToken);
+      loginStarted.await(5, TimeUnit.SECONDS);
+      // e.g. credentials changed while login was in flight
+      manager.invalidate();
+      assertEquals("token-2", manager.getToken());
+
+      releaseLogin.countDown();
+      assertEquals("token-1", staleCaller.get(5, TimeUnit.SECONDS));
+      // result of stale login was not published
+      assertEquals("token-2", manager.getToken());
+      manager.invalidate();
+      assertFalse(manager.hasToken());
+      assertEquals("token-3", manager.getToken());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static ImouTokenDTO token(String value) {
+    ImouTokenDTO dto = new ImouTokenDTO();
+    dto.setAccessToken(value);
+    dto.setExpireTime(3600);
+    return dto;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package org.homio.addon.imou.internal.push;
+
+import org.homio.addon.imou.internal.cloud.dto.ImouPushMessageDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImouPushReceiverTest {
+
+  private static final String SECRET = "0123456789abcdef";
+  private static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+  private ImouPushReceiver receiver;
+
+  @AfterEach
+  void stop() {
+    if (receiver != null) {
+      receiver.stop();
+    }
+  }
+
+  @Test
+  void registeredReceiverIsNotHealthyUntilPushArrives() throws Exception {
+    receiver = start(message -> true);
+    receiver.register(callbackUrl(SECRET));
+    assertFalse(receiver.isHealthy());
+
+    assertEquals(200, post(SECRET, "{\"msgType\":\"online\",\"did\":\"D1\"}"));
+    assertTrue(receiver.isHealthy());
+  }
+
+  @Test
+  void wrongSecretIsRejectedAndDoesNotMarkHealthy() throws Exception {
+    receiver = start(message -> true);
+    receiver.register(callbackUrl(SECRET));
+
+    assertEquals(404, post("wrong-secret", "{\"msgType\":\"online\",\"did\":\"D1\"}"));
+    assertFalse(receiver.isHealthy());
+  }
+
+  @Test
+  void repliesBeforeSlowHandlerFinishes() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> applied = new CopyOnWriteArrayList<>();
+    receiver = start(message -> {
+      if ("D1".equals(message.getDid())) {
+        awaitLatch(release);
+      }
+      applied.add(message.getDid());
+      return true;
+    });
+
+    long started = System.nanoTime();
+    assertEquals(200, post(SECRET, "{\"msgType\":\"videoMotion\",\"did\":\"D1\"}"));
+    // other device is not blocked by slow one
+    assertEquals(200, post(SECRET, "{\"msgType\":\"videoMotion\",\"did\":\"D2\"}"));
+    assertTrue(Duration.ofNanos(System.nanoTime() - started).toSeconds() < 5);
+    waitUntil(() -> applied.contains("D2"));
+    assertFalse(applied.contains("D1"));
+
+    release.countDown();
+    waitUntil(() -> applied.contains("D1"));
+  }
+
+  @Test
+  void messagesOfOneDeviceAreAppliedInOrder() throws Exception {
+    List<String> applied = new CopyOnWriteArrayList<>();
+    receiver = start(message -> {
+      applied.add(message.getMsgType());
+      return true;
+    });
+    for (String type : List.of("offline", "online", "sleep")) {
+      assertEquals(200, post(SECRET, "{\"msgType\":\"" + type + "\",\"did\":\"D1\"}"));
+    }
+    waitUntil(() -> applied.size() == 3);
+    assertEquals(List.of("offline", "online", "sleep"), applied);
+  }
+
+  @Test
+  void stalePushFallsBackToPolling() throws Exception {
+    receiver = start(message -> true);
+    receiver.register(callbackUrl(SECRET));
+    assertEquals(200, post(SECRET, "{\"msgType\":\"online\",\"did\":\"D1\"}"));
+
+    long now = System.currentTimeMillis();
+    assertTrue(receiver.isHealthy(now));
+    assertFalse(receiver.isHealthy(now + ImouPushReceiver.STALE_TIMEOUT.toMillis()));
+  }
+
+  @Test
+  void probeOfReachableCallbackMarksHealthy() throws Exception {
+    List<ImouPushMessageDTO> applied = new CopyOnWriteArrayList<>();
+    receiver = start(message -> applied.add(message));
+    receiver.register(callbackUrl(SECRET));
+
+    receiver.probeIfIdle();
+    waitUntil(receiver::isHealthy);
+    // probe is not forwarded to devices
+    assertTrue(applied.isEmpty());
+  }
+
+  @Test
+  void probeOfUnreachableCallbackKeepsPolling() throws Exception {
+    receiver = start(message -> true);
+    // wrong public host/path: cloud would never reach us
+    receiver.register(callbackUrl("not-our-secret"));
+
+    receiver.probeIfIdle();
+    Thread.sleep(500);
+    assertFalse(receiver.isHealthy());
+  }
+
+  private ImouPushReceiver start(Predicate<ImouPushMessageDTO> handler) throws Exception {
+    ImouPushReceiver pushReceiver = new ImouPushReceiver(SECRET, handler);
+    pushReceiver.start(0);
+    return pushReceiver;
+  }
+
+  private String callbackUrl(String secret) {
+    return "http://127.0.0.1:" + receiver.getPort() + ImouPushReceiver.CONTEXT_PATH + secret;
+  }
+
+  private int post(String secret, String body) throws Exception {
+    HttpRequest request = HttpRequest.newBuilder(URI.create(callbackUrl(secret)))
+      .timeout(Duration.ofSeconds(5))
+      .POST(HttpRequest.BodyPublishers.ofString(body))
+      .build();
+    return CLIENT.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+
+  private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.currentTimeMillis() < deadline, "Condition not met in time");
+      Thread.sleep(10);
+    }
+  }
+
+  private static void awaitLatch(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
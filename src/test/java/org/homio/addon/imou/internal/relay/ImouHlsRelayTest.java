@@ -0,0 +1,269 @@
+package org.homio.addon.imou.internal.relay;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.homio.addon.imou.internal.relay.ImouHlsRelay.Upstream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImouHlsRelayTest {
+
+  private static final String SECRET = "0123456789abcdef";
+  private static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+  private final UpstreamServer upstream = new UpstreamServer();
+  private ImouHlsRelay relay;
+
+  @BeforeEach
+  void startUpstream() throws IOException {
+    upstream.start();
+  }
+
+  @AfterEach
+  void stop() {
+    if (relay != null) {
+      relay.close();
+    }
+    upstream.stop();
+  }
+
+  @Test
+  void relaysUpstreamPlaylistAndSegments() throws Exception {
+    upstream.setWindow(100, 4);
+    relay = start(key -> Upstream.of(upstream.playlistUrl("cam")));
+
+    HttpResponse<String> playlist = get(relay.getPlaylistPath("D1_HD"));
+    assertEquals(200, playlist.statusCode());
+    assertTrue(playlist.body().contains("#EXT-X-MEDIA-SEQUENCE:0"), playlist.body());
+
+    String segmentPath = relay.getPlaylistPath("D1_HD").replace(ImouHlsRelay.PLAYLIST, "0.ts");
+    HttpResponse<byte[]> segment = CLIENT.send(request(segmentPath), HttpResponse.BodyHandlers.ofByteArray());
+    assertEquals(200, segment.statusCode());
+    // stream starts close to live edge: 4 segments in window, relay takes 3 newest, first of them is upstream 101
+    assertArrayEquals(UpstreamServer.segment(101), segment.body());
+  }
+
+  @Test
+  void wrongSecretIsRejected() throws Exception {
+    relay = start(key -> Upstream.of(upstream.playlistUrl("cam")));
+
+    String path = relay.getPlaylistPath("D1_HD").replace(SECRET, "wrong-secret-000");
+    assertEquals(404, get(path).statusCode());
+    assertEquals(0, upstream.requests.getOrDefault("cam", 0));
+  }
+
+  @Test
+  void failedResolveRepliesBadGateway() throws Exception {
+    relay = start(key -> {
+      throw new IllegalStateException("bind failed");
+    });
+
+    assertEquals(502, get(relay.getPlaylistPath("D1_HD")).statusCode());
+  }
+
+  @Test
+  void slowResolveDoesNotBlockOtherStreams() throws Exception {
+    upstream.setWindow(0, 3);
+    CountDownLatch release = new CountDownLatch(1);
+    relay = start(key -> {
+      if (key.startsWith("SLOW")) {
+        awaitLatch(release);
+      }
+      return Upstream.of(upstream.playlistUrl(key));
+    });
+    Thread slowViewer = Thread.ofVirtual().start(() -> {
+      try {
+        get(relay.getPlaylistPath("SLOW_HD"));
+      } catch (Exception ignore) {
+      }
+    });
+    Thread.sleep(100);
+
+    long started = System.nanoTime();
+    assertEquals(200, get(relay.getPlaylistPath("D1_HD")).statusCode());
+    assertTrue(Duration.ofNanos(System.nanoTime() - started).toSeconds() < 5);
+
+    release.countDown();
+    slowViewer.join(10000);
+  }
+
+  @Test
+  void viewersWaitingForFirstSegmentDoNotBlockOtherStreams() throws Exception {
+    upstream.setWindow(0, 3);
+    upstream.segmentDelay = 1500;
+    relay = start(key -> Upstream.of(upstream.playlistUrl(key)));
+    List<Thread> viewers = new ArrayList<>();
+    List<Integer> statuses = new CopyOnWriteArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      viewers.add(Thread.ofVirtual().start(() -> {
+        try {
+          statuses.add(get(relay.getPlaylistPath("slow_HD")).statusCode());
+        } catch (Exception ignore) {
+        }
+      }));
+    }
+    Thread.sleep(200);
+
+    long started = System.nanoTime();
+    assertEquals(200, get(relay.getPlaylistPath("D1_HD")).statusCode());
+    // fast stream served while slow stream viewers still wait for it's first segment
+    assertTrue(Duration.ofNanos(System.nanoTime() - started).toMillis() < 1500);
+    for (Thread viewer : viewers) {
+      viewer.join(20000);
+    }
+    assertEquals(50, statuses.size());
+    assertTrue(statuses.stream().allMatch(status -> status == 200), statuses.toString());
+  }
+
+  @Test
+  void upstreamRestartIsServedAsDiscontinuity() throws Exception {
+    upstream.setWindow(100, 3);
+    relay = start(key -> Upstream.of(upstream.playlistUrl("cam")));
+    String before = get(relay.getPlaylistPath("D1_HD")).body();
+    assertFalse(before.contains("#EXT-X-DISCONTINUITY\n"), before);
+    long firstSequence = mediaSequence(before);
+
+    // camera re-bound: upstream numbering starts over
+    upstream.setWindow(0, 3);
+    // whole restarted window relayed after discontinuity
+    String after = waitForPlaylist(playlist -> playlist.contains("#EXT-X-DISCONTINUITY\n")
+      && playlist.substring(playlist.indexOf("#EXT-X-DISCONTINUITY\n")).lines().filter(line -> line.endsWith(".ts")).count() == 3);
+    assertTrue(mediaSequence(after) >= firstSequence, after);
+    String lastSegment = after.lines().filter(line -> line.endsWith(".ts")).reduce((first, second) -> second).orElseThrow();
+    HttpResponse<byte[]> segment = CLIENT.send(
+      request(relay.getPlaylistPath("D1_HD").replace(ImouHlsRelay.PLAYLIST, lastSegment)),
+      HttpResponse.BodyHandlers.ofByteArray());
+    assertArrayEquals(UpstreamServer.segment(2), segment.body());
+  }
+
+  private ImouHlsRelay start(Function<String, Upstream> resolver) throws IOException {
+    ImouHlsRelay hlsRelay = new ImouHlsRelay(SECRET, resolver);
+    hlsRelay.start(0);
+    return hlsRelay;
+  }
+
+  private String waitForPlaylist(Function<String, Boolean> condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (true) {
+      String playlist = get(relay.getPlaylistPath("D1_HD")).body();
+      if (condition.apply(playlist)) {
+        return playlist;
+      }
+      assertTrue(System.currentTimeMillis() < deadline, "Unexpected playlist: " + playlist);
+      Thread.sleep(100);
+    }
+  }
+
+  private HttpResponse<String> get(String path) throws Exception {
+    return CLIENT.send(request(path), HttpResponse.BodyHandlers.ofString());
+  }
+
+  private HttpRequest request(String path) {
+    return HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + relay.getPort() + path))
+      .timeout(Duration.ofSeconds(20))
+      .GET()
+      .build();
+  }
+
+  private static long mediaSequence(String playlist) {
+    return playlist.lines().filter(line -> line.startsWith("#EXT-X-MEDIA-SEQUENCE:"))
+      .map(line -> Long.parseLong(line.substring(22))).findFirst().orElseThrow();
+  }
+
+  private static void awaitLatch(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Stand-in for imou HLS server. Serves sliding window of 1s segments, segment content is derived from it's sequence
+   */
+  private static class UpstreamServer {
+
+    private final Map<String, Integer> requests = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private volatile long firstSequence;
+    private volatile int size;
+    // delay of segments of streams which name starts with 'slow'
+    private volatile long segmentDelay;
+
+    private void start() throws IOException {
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+      server.createContext("/", this::handle);
+      server.start();
+    }
+
+    private void stop() {
+      server.stop(0);
+    }
+
+    private void setWindow(long firstSequence, int size) {
+      this.firstSequence = firstSequence;
+      this.size = size;
+    }
+
+    private String playlistUrl(String stream) {
+      return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + stream + "/index.m3u8";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+      String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+      requests.merge(path[0], 1, Integer::sum);
+      byte[] content;
+      if (path[1].endsWith(".m3u8")) {
+        long first = firstSequence;
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n#EXT-X-TARGETDURATION:1\n");
+        playlist.append("#EXT-X-MEDIA-SEQUENCE:").append(first).append('\n');
+        for (long sequence = first; sequence < first + size; sequence++) {
+          playlist.append("#EXTINF:1.000,\nseg").append(sequence).append(".ts\n");
+        }
+        content = playlist.toString().getBytes(StandardCharsets.UTF_8);
+      } else {
+        if (path[0].startsWith("slow") && segmentDelay > 0) {
+          try {
+            Thread.sleep(segmentDelay);
+          } catch (InterruptedException ignore) {
+          }
+        }
+        content = segment(Long.parseLong(path[1].substring(3, path[1].length() - 3)));
+      }
+      exchange.sendResponseHeaders(200, content.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(content);
+      }
+    }
+
+    private static byte[] segment(long sequence) {
+      return ("segment-" + sequence).getBytes(StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package org.homio.addon.imou.service;
+
+import com.sun.net.httpserver.HttpServer;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceAlarmMessageDTO.Alarm;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ImouAlarmPictureFetcherTest {
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private final ImouAlarmStore alarmStore = mock(ImouAlarmStore.class);
+  private final ImouAlarmPictureFetcher fetcher = new ImouAlarmPictureFetcher(alarmStore);
+  private HttpServer server;
+  @TempDir
+  private Path dir;
+
+  @BeforeEach
+  void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    server.createContext("/", exchange -> {
+      requests.incrementAndGet();
+      exchange.sendResponseHeaders(500, -1);
+      exchange.close();
+    });
+    server.start();
+    when(alarmStore.getPicturePath(anyString(), any(Alarm.class), anyInt())).thenReturn(dir.resolve("a1-0.jpg"));
+  }
+
+  @AfterEach
+  void stop() {
+    fetcher.close();
+    server.stop(0);
+  }
+
+  @Test
+  void expireTimeIsParsedFromSignedUrl() {
+    assertEquals(1700000000000L, ImouAlarmPictureFetcher.getExpireTime(
+      "https://oss/a.jpg?OSSAccessKeyId=k&Expires=1700000000&Signature=s%3D", 0));
+    assertEquals(1700000000000L + 3_600_000, ImouAlarmPictureFetcher.getExpireTime(
+      "https://s3/a.jpg?X-Amz-Algorithm=AWS4-HMAC-SHA256&X-Amz-Date=20231114T221320Z&X-Amz-Expires=3600", 0));
+    assertEquals(1700000000000L + 600_000, ImouAlarmPictureFetcher.getExpireTime(
+      "https://oss/a.jpg?x-oss-date=20231114T221320Z&x-oss-expires=600", 0));
+    // unknown or broken expiry falls back to default lifetime
+    assertEquals(1_800_000, ImouAlarmPictureFetcher.getExpireTime("https://cloud/a.jpg", 0));
+    assertEquals(1_800_000, ImouAlarmPictureFetcher.getExpireTime("https://cloud/a.jpg?Expires=soon", 0));
+  }
+
+  @Test
+  void downloadIsNotRetriedPastUrlExpiry() throws Exception {
+    // first retry would start after url expired
+    long expires = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 3;
+    String url = "http://127.0.0.1:%d/a.jpg?Expires=%d".formatted(server.getAddress().getPort(), expires);
+
+    fetcher.enqueue("D1", List.of(alarm(url)));
+    waitUntil(() -> fetcher.getStats().contains("Failed: 1"));
+    assertEquals(1, requests.get());
+    assertTrue(fetcher.getStats().contains("Retries: 0"), fetcher.getStats());
+    assertFalse(Files.exists(dir.resolve("a1-0.jpg.part")));
+
+    // failed url is not kept as pending
+    fetcher.enqueue("D1", List.of(alarm(url)));
+    waitUntil(() -> fetcher.getStats().contains("Failed: 2"));
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  void urlsQueuedAfterCloseAreNotKeptPending() {
+    String url = "http://127.0.0.1:%d/a.jpg".formatted(server.getAddress().getPort());
+    fetcher.close();
+
+    // rejected by closed executor
+    fetcher.enqueue("D1", List.of(alarm(url)));
+    fetcher.enqueue("D1", List.of(alarm(url)));
+    assertEquals(0, requests.get());
+  }
+
+  private static Alarm alarm(String url) {
+    Alarm alarm = new Alarm();
+    alarm.setAlarmId("a1");
+    alarm.setPicurlArray(List.of(url));
+    return alarm;
+  }
+
+  private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+      Thread.sleep(10);
+    }
+  }
+}
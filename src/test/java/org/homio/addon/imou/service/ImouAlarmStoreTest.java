@@ -0,0 +1,116 @@
+package org.homio.addon.imou.service;
+
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceAlarmMessageDTO.Alarm;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ImouAlarmStoreTest {
+
+  private static final LocalDate DAY = LocalDate.now().minusDays(1);
+
+  private final ImouAlarmStore store = new ImouAlarmStore();
+  private final String deviceId = "test-" + UUID.randomUUID();
+
+  @AfterEach
+  void cleanUp() {
+    store.remove(deviceId);
+    store.close();
+  }
+
+  @Test
+  void appendSkipsStoredAlarmsAndQueryReturnsNewestFirst() {
+    assertEquals(2, store.append(deviceId, List.of(alarm("10:05"), alarm("11:10"))));
+    assertEquals(1, store.append(deviceId, List.of(alarm("11:10"), alarm("12:20"))));
+    // channels are reopened after close
+    store.close();
+    assertEquals(1, store.append(deviceId, List.of(alarm("12:50"))));
+
+    List<Alarm> alarms = store.query(deviceId, at("00:00"), at("23:59"));
+    assertEquals(List.of("12:50", "12:20", "11:10", "10:05"), alarms.stream().map(Alarm::getAlarmId).toList());
+  }
+
+  @Test
+  void countPerHourCountsPartialHoursOnlyInsideRange() {
+    store.append(deviceId, List.of(alarm("10:05"), alarm("10:40"), alarm("11:10"), alarm("11:50"), alarm("12:20"),
+      alarm("12:50")));
+
+    Map<LocalDateTime, Integer> counts = store.countPerHour(deviceId, at("10:30"), at("12:30"));
+    assertEquals(Map.of(DAY.atTime(10, 0), 1, DAY.atTime(11, 0), 2, DAY.atTime(12, 0), 1), counts);
+
+    // range inside single hour
+    assertEquals(Map.of(DAY.atTime(10, 0), 1), store.countPerHour(deviceId, at("10:10"), at("10:50")));
+    // aligned range is served from index only
+    assertEquals(Map.of(DAY.atTime(11, 0), 2), store.countPerHour(deviceId, at("11:00"), at("12:00")));
+  }
+
+  @Test
+  void storedAlarmLinksDownloadedPictures() throws Exception {
+    Alarm alarm = alarm("10:05");
+    alarm.setPicurlArray(List.of("https://cloud/1.jpg?sign=1", "https://cloud/2.jpg?sign=1"));
+    store.append(deviceId, List.of(alarm));
+    // only first picture downloaded
+    Path downloaded = store.getPicturePath(deviceId, alarm, 0);
+    Files.createDirectories(downloaded.getParent());
+    Files.write(downloaded, new byte[]{1});
+
+    Alarm stored = store.query(deviceId, at("00:00"), at("23:59")).getFirst();
+    assertEquals(List.of(downloaded.toString()), stored.getLocalPictures());
+  }
+
+  @Test
+  void thumbnailIsLinkedWhenAlarmHasNoPictures() {
+    Alarm alarm = alarm("10:05");
+    alarm.setThumbUrl("https://cloud/thumb.jpg?sign=1");
+    store.append(deviceId, List.of(alarm));
+
+    assertEquals(List.of(store.getPicturePath(deviceId, alarm, 0).toString()), alarm.getLocalPictures());
+    // not downloaded yet
+    assertEquals(List.of(), store.query(deviceId, at("00:00"), at("23:59")).getFirst().getLocalPictures());
+  }
+
+  @Test
+  void retentionIsAppliedPerDevice() {
+    String otherDeviceId = "test-" + UUID.randomUUID();
+    try {
+      Alarm old = alarm("10:05");
+      old.setTime(at("10:05").minus(5, ChronoUnit.DAYS).getEpochSecond());
+      store.append(deviceId, List.of(old));
+      store.append(otherDeviceId, List.of(old));
+      // projects of devices set different retention, order doesn't matter
+      store.setRetentionDays(otherDeviceId, 2);
+      store.setRetentionDays(deviceId, 10);
+
+      store.purgeExpired();
+      Instant from = at("00:00").minus(10, ChronoUnit.DAYS);
+      assertEquals(1, store.query(deviceId, from, at("23:59")).size());
+      assertEquals(0, store.query(otherDeviceId, from, at("23:59")).size());
+    } finally {
+      store.remove(otherDeviceId);
+    }
+  }
+
+  private static Alarm alarm(String time) {
+    Alarm alarm = new Alarm();
+    alarm.setAlarmId(time);
+    alarm.setTime(at(time).getEpochSecond());
+    return alarm;
+  }
+
+  private static Instant at(String time) {
+    return DAY.atTime(LocalTime.parse(time)).atZone(ZoneId.systemDefault()).toInstant();
+  }
+}
@@ -0,0 +1,202 @@
+package org.homio.addon.imou.service;
+
+import org.homio.addon.imou.ImouDeviceEndpoint;
+import org.homio.addon.imou.ImouDeviceEntity;
+import org.homio.addon.imou.ImouProjectEntity;
+import org.homio.addon.imou.internal.cloud.ImouAPI;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceAlarmMessageDTO;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceAlarmMessageDTO.Alarm;
+import org.homio.addon.imou.internal.cloud.dto.ImouPushMessageDTO;
+import org.homio.api.Context;
+import org.homio.api.Context.ContextDB;
+import org.homio.api.model.Status;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.homio.api.util.Constants.PRIMARY_DEVICE;
+
+class ImouDeviceServiceTest {
+
+  private static final String DEVICE_ID = "D1";
+
+  private final ImouAPI api = mock(ImouAPI.class);
+  private final Set<String> storedAlarms = new HashSet<>();
+  // cloud alarms, newest first
+  private final List<Alarm> cloudAlarms = new ArrayList<>();
+  private final Context context = mock(Context.class);
+  private ImouDeviceEntity entity;
+  private ImouDeviceService service;
+
+  @BeforeEach
+  void setUp() {
+    when(context.db()).thenReturn(mock(ContextDB.class));
+    when(context.getBean(ImouSnapshotStore.class)).thenReturn(mock(ImouSnapshotStore.class));
+    ImouAlarmStore alarmStore = mock(ImouAlarmStore.class);
+    when(context.getBean(ImouAlarmStore.class)).thenReturn(alarmStore);
+    when(context.getBean(ImouAlarmPictureFetcher.class)).thenReturn(mock(ImouAlarmPictureFetcher.class));
+    doAnswer(invocation -> {
+      Collection<Alarm> alarms = invocation.getArgument(1);
+      alarms.forEach(alarm -> assertTrue(storedAlarms.add(alarm.getAlarmId()), "Alarm stored twice"));
+      return alarms.size();
+    }).when(alarmStore).append(eq(DEVICE_ID), anyCollection());
+
+    ImouProjectEntity project = project(PRIMARY_DEVICE, api);
+    entity = spy(new ImouDeviceEntity());
+    entity.setIeeeAddress(DEVICE_ID);
+    entity.setEntityID("imou-" + DEVICE_ID);
+    doReturn(project).when(entity).getProject();
+    when(api.getAlarmMessages(eq(DEVICE_ID), anyLong(), anyString(), anyInt())).thenAnswer(invocation ->
+      page(invocation.getArgument(1), invocation.getArgument(2), invocation.getArgument(3)));
+    service = new ImouDeviceService(context, entity);
+  }
+
+  @Test
+  void pageLimitKeepsHighWaterMarkUntilBacklogSynced() {
+    Alarm known = alarm(1000);
+    entity.setLastAlarm(known);
+    // 700 new alarms do not fit into 20 pages of 30
+    for (int time = 1700; time > 1000; time--) {
+      cloudAlarms.add(alarm(time));
+    }
+    cloudAlarms.add(known);
+
+    assertEquals(600, service.syncAlarms().size());
+    assertEquals(1000, entity.getLastAlarmTime());
+    assertEquals("date-1700", entity.getLastAlarmDate());
+
+    // new alarm arrived between syncs
+    cloudAlarms.addFirst(alarm(1701));
+    assertEquals(100, service.syncAlarms().size());
+    assertEquals(1700, entity.getLastAlarmTime());
+    assertNull(entity.getPendingLastAlarm());
+
+    assertEquals(List.of("a1701"), service.syncAlarms().stream().map(Alarm::getAlarmId).toList());
+    assertEquals(1701, entity.getLastAlarmTime());
+    assertEquals(701, storedAlarms.size());
+  }
+
+  @Test
+  void apiIsResolvedOnceAndFollowsOwnerChange() {
+    assertSame(api, service.getApi());
+    assertSame(api, service.getApi());
+    verify(entity, times(1)).getProject();
+
+    ImouAPI otherApi = mock(ImouAPI.class);
+    ImouProjectEntity other = project("other", otherApi);
+    doReturn(other).when(entity).getProject();
+    entity.setProjectID("other");
+    assertSame(otherApi, service.getApi());
+
+    // project service re-initialized
+    service.resetApi();
+    service.getApi();
+    verify(entity, times(3)).getProject();
+  }
+
+  @Test
+  void statusPushWithUnknownStatusIsNotRecordedAsAlarm() {
+    ImouDeviceEndpoint motion = mock(ImouDeviceEndpoint.class);
+    service.getEndpoints().put(ImouDeviceService.ENDPOINT_MOTION_ALARM, motion);
+    Status status = entity.getStatus();
+
+    ImouPushMessageDTO message = new ImouPushMessageDTO();
+    message.setMsgType("deviceStatus");
+    message.setStatus("5");
+    message.setTime(1700);
+    service.handlePushMessage(message);
+
+    assertEquals(status, entity.getStatus());
+    verify(motion, never()).setValue(any(), anyBoolean());
+    verify(context, never()).bgp();
+  }
+
+  @Test
+  void circuitMessageIsChangedOnlyWhenBreakerStateChanges() {
+    entity.setStatus(Status.ERROR, "Unable to fetch device info");
+    service.updateCircuitStatusMessage();
+    assertEquals("Unable to fetch device info", entity.getStatusMessage());
+
+    when(api.getDeviceCircuitMessage(DEVICE_ID)).thenReturn("Circuit half-open. Probing");
+    service.updateCircuitStatusMessage();
+    assertEquals("Circuit half-open. Probing", entity.getStatusMessage());
+    // message set while breaker still open is kept
+    entity.setStatus(Status.OFFLINE, "Device offline");
+    service.updateCircuitStatusMessage();
+    assertEquals("Device offline", entity.getStatusMessage());
+
+    when(api.getDeviceCircuitMessage(DEVICE_ID)).thenReturn(null);
+    service.updateCircuitStatusMessage();
+    assertEquals("Device offline", entity.getStatusMessage());
+    assertEquals(Status.OFFLINE, entity.getStatus());
+  }
+
+  @Test
+  void circuitMessageIsClearedWhenBreakerCloses() {
+    entity.setStatus(Status.ONLINE);
+    when(api.getDeviceCircuitMessage(DEVICE_ID)).thenReturn("Circuit half-open. Probing");
+    service.updateCircuitStatusMessage();
+    assertEquals("Circuit half-open. Probing", entity.getStatusMessage());
+
+    when(api.getDeviceCircuitMessage(DEVICE_ID)).thenReturn(null);
+    service.updateCircuitStatusMessage();
+    assertNull(entity.getStatusMessage());
+    assertEquals(Status.ONLINE, entity.getStatus());
+  }
+
+  private static ImouProjectEntity project(String projectId, ImouAPI api) {
+    ImouProjectEntity project = mock(ImouProjectEntity.class);
+    ImouProjectService projectService = mock(ImouProjectService.class);
+    when(project.getEntityID()).thenReturn(projectId);
+    when(project.getService()).thenReturn(projectService);
+    when(projectService.getApi()).thenReturn(api);
+    return project;
+  }
+
+  private ImouDeviceAlarmMessageDTO page(long beginTime, String cursor, int count) {
+    List<Alarm> matching = cloudAlarms.stream().filter(alarm -> alarm.getTime() >= beginTime).toList();
+    int start = 0;
+    if (!"-1".equals(cursor)) {
+      while (!matching.get(start).getAlarmId().equals(cursor)) {
+        start++;
+      }
+    }
+    int end = Math.min(matching.size(), start + count);
+    ImouDeviceAlarmMessageDTO dto = new ImouDeviceAlarmMessageDTO();
+    dto.setAlarms(new ArrayList<>(matching.subList(start, end)));
+    dto.setNextAlarmId(end < matching.size() ? matching.get(end).getAlarmId() : "-1");
+    return dto;
+  }
+
+  private static Alarm alarm(long time) {
+    Alarm alarm = new Alarm();
+    alarm.setAlarmId("a" + time);
+    alarm.setTime(time);
+    alarm.setLocalDate("date-" + time);
+    return alarm;
+  }
+}
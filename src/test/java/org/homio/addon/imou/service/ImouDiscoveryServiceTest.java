@@ -0,0 +1,108 @@
+package org.homio.addon.imou.service;
+
+import org.homio.addon.imou.ImouDeviceEntity;
+import org.homio.addon.imou.ImouProjectEntity;
+import org.homio.addon.imou.internal.cloud.ImouAPI;
+import org.homio.addon.imou.internal.cloud.ImouRateLimiter.Priority;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceDTO;
+import org.homio.addon.imou.internal.cloud.dto.ImouDeviceDTO.ImouChannel;
+import org.homio.api.Context;
+import org.homio.api.Context.ContextDB;
+import org.homio.api.service.discovery.ItemDiscoverySupport.DeviceScannerResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ImouDiscoveryServiceTest {
+
+  @Test
+  void volatileChannelStateDoesNotChangeFingerprint() {
+    ImouDeviceDTO device = device();
+    long fingerprint = ImouDiscoveryService.fingerprint(device);
+
+    ImouChannel channel = device.channels.getFirst();
+    channel.channelOnline = false;
+    channel.csStatus = 2;
+    channel.alarmStatus = 1;
+    channel.channelPicUrl = "https://cloud/pic.jpg?sign=2";
+    assertEquals(fingerprint, ImouDiscoveryService.fingerprint(device));
+  }
+
+  @Test
+  void structuralChangeChangesFingerprint() {
+    ImouDeviceDTO device = device();
+    long fingerprint = ImouDiscoveryService.fingerprint(device);
+
+    device.channels.getFirst().channelName = "Garage";
+    assertNotEquals(fingerprint, ImouDiscoveryService.fingerprint(device));
+
+    device = device();
+    device.ability = "WLM,AlarmMD";
+    assertNotEquals(fingerprint, ImouDiscoveryService.fingerprint(device));
+  }
+
+  @Test
+  void scanKeepsOwnerOfDeviceSharedBetweenAccounts() {
+    ImouDeviceEntity shared = new ImouDeviceEntity();
+    shared.setIeeeAddress("D1");
+    shared.setProjectID("P1");
+    List<ImouDeviceEntity> saved = new ArrayList<>();
+    Context context = mock(Context.class);
+    ContextDB db = mock(ContextDB.class);
+    when(context.db()).thenReturn(db);
+    when(db.findAll(ImouDeviceEntity.class)).thenReturn(List.of(shared));
+    when(db.save(any(ImouDeviceEntity.class))).thenAnswer(invocation -> {
+      saved.add(invocation.getArgument(0));
+      return invocation.getArgument(0);
+    });
+    ImouDeviceDTO newDevice = device();
+    newDevice.deviceId = "D2";
+
+    DeviceScannerResult result = new DeviceScannerResult();
+    new ImouDiscoveryService().scan(context, project("P2", List.of(device(), newDevice)), (progress, message, error) -> {
+    }, result);
+
+    assertEquals("P1", shared.getProjectID());
+    assertEquals(List.of("D1", "D2"), saved.stream().map(ImouDeviceEntity::getIeeeAddress).toList());
+    assertEquals("P2", saved.get(1).getProjectID());
+    // changed device is saved but not reported as new one
+    assertEquals(1, result.getNewCount().get());
+    assertEquals(1, result.getExistedCount().get());
+  }
+
+  private static ImouProjectEntity project(String projectId, List<ImouDeviceDTO> devices) {
+    ImouAPI api = mock(ImouAPI.class);
+    when(api.getDeviceListAsync(1, Priority.DISCOVERY)).thenReturn(CompletableFuture.completedFuture(devices));
+    ImouProjectService service = mock(ImouProjectService.class);
+    when(service.getApi()).thenReturn(api);
+    ImouProjectEntity project = mock(ImouProjectEntity.class);
+    when(project.getEntityID()).thenReturn(projectId);
+    when(project.getService()).thenReturn(service);
+    return project;
+  }
+
+  private static ImouDeviceDTO device() {
+    ImouChannel channel = new ImouChannel();
+    channel.channelId = 0;
+    channel.channelName = "Yard";
+    channel.channelAbility = "AlarmMD";
+    channel.channelOnline = true;
+    channel.channelPicUrl = "https://cloud/pic.jpg?sign=1";
+    ImouDeviceDTO device = new ImouDeviceDTO();
+    device.deviceId = "D1";
+    device.name = "Yard camera";
+    device.deviceModel = "IPC-C22";
+    device.ability = "WLM";
+    device.channelNum = 1;
+    device.channels = List.of(channel);
+    return device;
+  }
+}
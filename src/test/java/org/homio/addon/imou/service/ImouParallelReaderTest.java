@@ -0,0 +1,31 @@
+package org.homio.addon.imou.service;
+
+import org.homio.addon.imou.internal.cloud.ImouAPI;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImouParallelReaderTest {
+
+  @Test
+  void readsNotFinishedBeforeDeadlineCancelAwaitedRequest() throws Exception {
+    CompletableFuture<String> slowRequest = new CompletableFuture<>();
+    CompletableFuture<String> fastRequest = CompletableFuture.completedFuture("ok");
+
+    int timedOut = ImouParallelReader.runAll(List.of(() -> ImouAPI.await(slowRequest), () -> ImouAPI.await(fastRequest)),
+      Duration.ofMillis(200));
+
+    assertEquals(1, timedOut);
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (!slowRequest.isDone() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(slowRequest.isCancelled());
+  }
+}
@@ -0,0 +1,129 @@
+package org.homio.addon.imou.service;
+
+import org.homio.addon.imou.service.ImouSnapshotStore.CachedSnapshot;
+import org.homio.addon.imou.service.ImouSnapshotStore.Variant;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImouSnapshotStoreTest {
+
+  private static final int IMAGE_SIZE = 400 * 1024;
+
+  @Test
+  void variantFallbackCountsSingleMiss() {
+    ImouSnapshotStore store = new ImouSnapshotStore();
+
+    assertNull(store.get("D1", Variant.THUMBNAIL));
+    assertTrue(store.getStats().contains("Misses: 1."), store.getStats());
+  }
+
+  @Test
+  void variantFallsBackToOriginal() {
+    ImouSnapshotStore store = new ImouSnapshotStore();
+    store.put("D1", image(1));
+
+    CachedSnapshot snapshot = store.get("D1", Variant.THUMBNAIL);
+    assertNotNull(snapshot);
+    assertArrayEquals(image(1), snapshot.image());
+    assertTrue(store.getStats().contains("Misses: 0."), store.getStats());
+  }
+
+  @Test
+  void evictedImageIsReadBackFromDisk() {
+    ImouSnapshotStore store = new ImouSnapshotStore();
+    store.setMemoryBudget("P1", 1);
+    for (int i = 0; i < 4; i++) {
+      store.put("D" + i, image(i));
+    }
+    assertTrue(store.getStats().contains("Disk: 2 items"), store.getStats());
+
+    for (int i = 0; i < 4; i++) {
+      CachedSnapshot snapshot = store.get("D" + i);
+      assertNotNull(snapshot);
+      assertArrayEquals(image(i), snapshot.image());
+    }
+  }
+
+  @Test
+  void removedDiskImageIsNotServed() {
+    ImouSnapshotStore store = new ImouSnapshotStore();
+    store.setMemoryBudget("P1", 1);
+    for (int i = 0; i < 4; i++) {
+      store.put("D" + i, image(i));
+    }
+    store.remove("D0");
+    store.remove("D1");
+
+    assertNull(store.get("D0"));
+    assertNull(store.get("D1"));
+    assertTrue(store.getStats().contains("Disk: 0 items"), store.getStats());
+  }
+
+  @Test
+  void memoryBudgetIsSumOfProjectShares() {
+    ImouSnapshotStore store = new ImouSnapshotStore();
+    store.setMemoryBudget("P1", 1);
+    store.setMemoryBudget("P2", 1);
+    for (int i = 0; i < 4; i++) {
+      store.put("D" + i, image(i));
+    }
+    assertTrue(store.getStats().contains("Disk: 0 items"), store.getStats());
+    // same share set again by other project restart doesn't shrink cache
+    store.setMemoryBudget("P1", 1);
+    assertTrue(store.getStats().contains("/2048Kb"), store.getStats());
+
+    store.removeMemoryBudget("P2");
+    assertTrue(store.getStats().contains("Disk: 2 items"), store.getStats());
+  }
+
+  @Test
+  void closeDeletesDiskFiles() throws Exception {
+    ImouSnapshotStore store = new ImouSnapshotStore();
+    store.setMemoryBudget("P1", 1);
+    for (int i = 0; i < 4; i++) {
+      store.put("D" + i, image(i));
+    }
+    Path directory = store.getDirectory();
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(2, files.count());
+    }
+    store.close();
+
+    assertFalse(Files.exists(directory));
+    assertNull(store.get("D0"));
+    assertNull(store.get("D3"));
+  }
+
+  @Test
+  void filesLeftByPreviousRunAreDropped() throws Exception {
+    ImouSnapshotStore previous = new ImouSnapshotStore();
+    previous.setMemoryBudget("P1", 1);
+    for (int i = 0; i < 4; i++) {
+      previous.put("D" + i, image(i));
+    }
+    // previous run was killed without close
+
+    ImouSnapshotStore store = new ImouSnapshotStore();
+    try (Stream<Path> files = Files.list(store.getDirectory())) {
+      assertEquals(0, files.count());
+    }
+    store.close();
+  }
+
+  private static byte[] image(int seed) {
+    byte[] image = new byte[IMAGE_SIZE];
+    Arrays.fill(image, (byte) seed);
+    return image;
+  }
+}